@@ -0,0 +1,41 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.Server;
+import net.minecraft.server.MinecraftServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link Server#hasRealPlayers} on large player lists. The only real player is
+ * last in the list, so every fake player ahead of it has to be looked at.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlayersBenchmark
+{
+    @Param({ "10", "200", "1000" })
+    public int players;
+
+    private MinecraftServer server;
+
+    @Setup
+    public void setup()
+    {
+        server = StandIns.server(players, 1);
+    }
+
+    @Benchmark
+    public boolean hasRealPlayers()
+    {
+        return Server.hasRealPlayers(server);
+    }
+}
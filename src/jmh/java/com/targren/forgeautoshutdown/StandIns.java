@@ -0,0 +1,126 @@
+package com.targren.forgeautoshutdown;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import net.minecraft.SharedConstants;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.dedicated.DedicatedPlayerList;
+import net.minecraft.server.dedicated.DedicatedServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.players.PlayerList;
+import net.minecraftforge.common.util.FakePlayer;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * Lightweight stand-ins for the server objects that benchmarked code reads from.
+ *
+ * Real servers, player lists and players cannot be built outside of a running game, so
+ * these are allocated without running any constructor, and only the fields the benchmarked
+ * code reads are filled in. Config values are given their defaults from an in-memory config.
+ */
+final class StandIns
+{
+    private static final Unsafe UNSAFE;
+
+    static
+    {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+        Config.SPEC.acceptConfig(CommentedConfig.inMemory());
+        Config.refresh();
+
+        try
+        {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Builds a server with the given amount of players online
+     * @param players Amount of players in the player list
+     * @param realPlayers Amount of those that are real, placed at the end of the list
+     */
+    static MinecraftServer server(int players, int realPlayers)
+    {
+        MinecraftServer server = allocate(DedicatedServer.class);
+        PlayerList playerList = allocate(DedicatedPlayerList.class);
+        List<ServerPlayer> list = get(PlayerList.class, playerList, "players");
+
+        for (int i = 0; i < players; i++)
+            list.add(i < players - realPlayers ? allocate(FakePlayer.class) : allocate(ServerPlayer.class));
+
+        set(MinecraftServer.class, server, "playerList", playerList);
+        return server;
+    }
+
+    /** Creates an instance of a class without running any of its constructors */
+    static <T> T allocate(Class<T> type)
+    {
+        try
+        {
+            return type.cast(UNSAFE.allocateInstance(type));
+        }
+        catch (InstantiationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Calls a private constructor */
+    static <T> T construct(Class<T> type, Class<?>[] parameters, Object... arguments)
+    {
+        try
+        {
+            Constructor<T> constructor = type.getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return constructor.newInstance(arguments);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Reads a private field; pass a null target for static fields */
+    @SuppressWarnings("unchecked")
+    static <T> T get(Class<?> owner, Object target, String name)
+    {
+        try
+        {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            return (T) field.get(target);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Writes a private field; pass a null target for static fields */
+    static void set(Class<?> owner, Object target, String name, Object value)
+    {
+        try
+        {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private StandIns() { }
+}
@@ -0,0 +1,57 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.TickStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the tick path: recording a tick's duration, which {@link TickMonitor} does at the
+ * end of every server and level tick, and the summary the watchdog takes of the window.
+ * Recording should never allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TickStatsBenchmark
+{
+    @Param({ "1200", "72000" })
+    public int window;
+
+    private TickStats stats;
+    private long[] durations;
+    private int next = 0;
+
+    @Setup
+    public void setup()
+    {
+        stats = new TickStats(window);
+        durations = new long[1024];
+
+        for (int i = 0; i < durations.length; i++)
+            durations[i] = ThreadLocalRandom.current().nextLong(1_000_000L, 80_000_000L);
+
+        for (int i = 0; i < window; i++)
+            stats.record(durations[i % durations.length]);
+    }
+
+    @Benchmark
+    public void record()
+    {
+        stats.record(durations[next++ & (durations.length - 1)]);
+    }
+
+    @Benchmark
+    public TickStats.Summary summarize()
+    {
+        return stats.summarize();
+    }
+}
@@ -0,0 +1,63 @@
+package com.targren.forgeautoshutdown;
+
+import net.minecraft.server.MinecraftServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the tally {@link ShutdownCommand} takes after each vote. Every player but one
+ * has voted yes, so the vote neither passes nor fails and the check runs in full each time.
+ * As the tally is kept in live counters, the time taken should not grow with the players.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VoteBenchmark
+{
+    @Param({ "10", "200", "1000" })
+    public int players;
+
+    private MinecraftServer server;
+    private ShutdownCommand command;
+    private MethodHandle checkVotes;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException
+    {
+        server = StandIns.server(players, players);
+        command = StandIns.get(ShutdownCommand.class, null, "INSTANCE");
+
+        Map<UUID, Boolean> votes = StandIns.get(ShutdownCommand.class, command, "votes");
+        votes.clear();
+
+        for (int i = 0; i < players - 1; i++)
+            votes.put(UUID.randomUUID(), true);
+
+        StandIns.set(ShutdownCommand.class, command, "voting", true);
+        StandIns.set(ShutdownCommand.class, command, "yes", players - 1);
+        StandIns.set(ShutdownCommand.class, command, "no", 0);
+        StandIns.set(ShutdownCommand.class, command, "voters", players);
+
+        checkVotes = MethodHandles.privateLookupIn(ShutdownCommand.class, MethodHandles.lookup())
+            .findVirtual(ShutdownCommand.class, "checkVotes", MethodType.methodType(void.class, MinecraftServer.class));
+    }
+
+    @Benchmark
+    public void checkVotes() throws Throwable
+    {
+        checkVotes.invokeExact(command, server);
+    }
+}
@@ -0,0 +1,71 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.Clock;
+import com.targren.forgeautoshutdown.util.TickStats;
+import net.minecraft.server.MinecraftServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a single healthy watchdog check, as run on the scheduler thread every Interval
+ * seconds, and a heartbeat check, as run on the watchdog thread every HeartbeatInterval
+ * milliseconds. The tick window is full, so the summary sorts all of it, and the heartbeat
+ * is advanced before each heartbeat check, so the server is never seen as hanging.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WatchdogBenchmark
+{
+    private MinecraftServer server;
+    private WatchdogTask watchdog;
+    private MethodHandle doMonitor;
+    private VarHandle heartbeat;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException
+    {
+        server = StandIns.server(20, 20);
+
+        TickMonitor monitor = StandIns.construct(TickMonitor.class, new Class<?>[] { int.class }, Config.statsWindow.get());
+        TickStats stats = StandIns.get(TickMonitor.class, monitor, "stats");
+        StandIns.set(TickMonitor.class, null, "INSTANCE", monitor);
+
+        for (int i = 0; i < stats.getWindow(); i++)
+            stats.record(ThreadLocalRandom.current().nextLong(5_000_000L, 60_000_000L));
+
+        watchdog = new WatchdogTask(Clock.SYSTEM, ServerProbe.of(server), cause -> { });
+        StandIns.set(WatchdogTask.class, null, "SERVER", server);
+        StandIns.set(WatchdogTask.class, watchdog, "dimensions", new DimensionWatch());
+
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(WatchdogTask.class, MethodHandles.lookup());
+        doMonitor = lookup.findVirtual(WatchdogTask.class, "doMonitor", MethodType.methodType(void.class));
+        heartbeat = MethodHandles.privateLookupIn(TickMonitor.class, MethodHandles.lookup())
+            .findStaticVarHandle(TickMonitor.class, "heartbeat", long.class);
+    }
+
+    @Benchmark
+    public void doMonitor() throws Throwable
+    {
+        doMonitor.invokeExact(watchdog);
+    }
+
+    @Benchmark
+    public void checkHeartbeat()
+    {
+        heartbeat.setRelease(System.nanoTime());
+        watchdog.checkHeartbeat();
+    }
+}
@@ -0,0 +1,149 @@
+package com.targren.forgeautoshutdown;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.targren.forgeautoshutdown.util.Chat;
+import com.targren.forgeautoshutdown.util.TickStats;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static handler for the `/autoshutdown` admin command
+ */
+public class AutoShutdownCommand
+{
+    /** Registers the `/autoshutdown` command for use by operators */
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher)
+    {
+        dispatcher.register(Commands.literal("autoshutdown")
+            .requires(source -> source.hasPermission(2))
+            .then(Commands.literal("stats")
+                .executes(context -> showStats(context.getSource()))
+            )
+            .then(Commands.literal("census")
+                .executes(context -> showCensus(context.getSource()))
+                .then(Commands.literal("start")
+                    .executes(context -> startCensus(context.getSource()))
+                )
+            )
+        );
+
+        ForgeAutoShutdown.LOGGER.debug("`/autoshutdown` command registered");
+    }
+
+    private static int showStats(CommandSourceStack source)
+    {
+        TickStats stats = TickMonitor.getStats();
+
+        if (stats == null)
+        {
+            Chat.to(source, "forgeautoshutdown.stats.unavailable");
+            return 0;
+        }
+
+        TickStats.Summary ticks = stats.summarize();
+        double averageTickTime = source.getServer().getAverageTickTime();
+
+        Chat.to(source, "forgeautoshutdown.stats.ticks",
+            ticks.samples,
+            format(ticks.mean),
+            format(ticks.p95),
+            format(ticks.p99),
+            format(ticks.max)
+        );
+        Chat.to(source, "forgeautoshutdown.stats.tps",
+            format(averageTickTime),
+            format(TickStats.toTps(averageTickTime))
+        );
+
+        for (Map.Entry<ResourceKey<Level>, TickStats> entry : TickMonitor.getLevelStats().entrySet())
+        {
+            TickStats.Summary level = entry.getValue().summarize();
+
+            Chat.to(source, "forgeautoshutdown.stats.dimension",
+                entry.getKey().location().toString(),
+                format(level.mean),
+                format(level.p95),
+                format(level.p99),
+                format(level.max)
+            );
+        }
+
+        return 1;
+    }
+
+    private static int showCensus(CommandSourceStack source)
+    {
+        WorldCensus.Report census = WorldCensus.getLast();
+
+        if (census == null)
+        {
+            Chat.to(source, "forgeautoshutdown.census.none");
+            return 0;
+        }
+
+        Chat.to(source, "forgeautoshutdown.census.header", ShutdownTask.DATE.format(census.taken), census.ticks);
+
+        for (WorldCensus.LevelReport level : census.levels)
+        {
+            Chat.to(source, "forgeautoshutdown.census.level",
+                level.dimension,
+                level.loadedChunks,
+                level.tickingChunks,
+                level.entities,
+                level.blockEntities
+            );
+            Chat.to(source, "forgeautoshutdown.census.entities", describe(WorldCensus.LevelReport.top(level.entityTypes, 5)));
+            Chat.to(source, "forgeautoshutdown.census.blockentities", describe(WorldCensus.LevelReport.top(level.blockEntityTypes, 5)));
+
+            for (Map.Entry<Long, int[]> chunk : level.densest.subList(0, Math.min(5, level.densest.size())))
+            {
+                ChunkPos pos = new ChunkPos(chunk.getKey());
+                Chat.to(source, "forgeautoshutdown.census.chunk",
+                    pos.x, pos.z, pos.x << 4, pos.z << 4, chunk.getValue()[0], chunk.getValue()[1]);
+            }
+        }
+
+        return 1;
+    }
+
+    /** Runs from the main server thread */
+    private static int startCensus(CommandSourceStack source)
+    {
+        if (!WorldCensus.start(source.getServer(), "a command"))
+        {
+            Chat.to(source, "forgeautoshutdown.census.running");
+            return 0;
+        }
+
+        Chat.to(source, "forgeautoshutdown.census.started");
+        return 1;
+    }
+
+    private static String describe(List<Map.Entry<String, Integer>> types)
+    {
+        StringBuilder out = new StringBuilder();
+
+        for (Map.Entry<String, Integer> type : types)
+        {
+            if (out.length() > 0)
+                out.append(", ");
+
+            out.append(type.getValue()).append(' ').append(type.getKey());
+        }
+
+        return out.length() == 0 ? "-" : out.toString();
+    }
+
+    private static String format(double value)
+    {
+        return String.format("%.2f", value);
+    }
+
+    private AutoShutdownCommand() { }
+}
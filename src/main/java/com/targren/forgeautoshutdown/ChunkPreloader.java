@@ -0,0 +1,133 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.ChunkManifest;
+import com.targren.forgeautoshutdown.util.Server;
+import net.minecraft.core.Registry;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.level.TicketType;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraftforge.common.util.FakePlayer;
+import net.minecraftforge.event.server.ServerStartedEvent;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Static handler that writes a {@link ChunkManifest} of where players are during a graceful
+ * shutdown, and on the next start loads the chunks in it before players reconnect.
+ *
+ * Chunks are loaded by adding a ticket for each, which the server's chunk workers load or
+ * generate in the background. Tickets keep chunks loaded, but not ticking, and expire by
+ * themselves after PreloadMinutes, after which chunks nobody came back to are unloaded.
+ */
+class ChunkPreloader
+{
+    private static final String FILE = "chunk-manifest.bin";
+    private static final Logger LOGGER = ForgeAutoShutdown.LOGGER;
+
+    private static TicketType<ChunkPos> TICKET;
+
+    /** Writes the manifest of where players are now; runs from the main server thread */
+    static void writeManifest(MinecraftServer server)
+    {
+        ConfigSnapshot config = Config.get();
+
+        if (!config.preload || server.getPlayerCount() == 0)
+            return;
+
+        ChunkManifest manifest = new ChunkManifest();
+
+        for (ServerPlayer player : server.getPlayerList().getPlayers())
+        {
+            if (player instanceof FakePlayer)
+                continue;
+
+            manifest.add(new ChunkManifest.Position(
+                player.getUUID(),
+                player.getLevel().dimension().location().toString(),
+                player.getX(),
+                player.getY(),
+                player.getZ()
+            ), config.preloadRadius);
+        }
+
+        try
+        {
+            manifest.save(getFile(server));
+            LOGGER.info("Wrote a manifest of {} chunks around {} players", manifest.getChunkCount(), manifest.getPositions().size());
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Could not write chunk manifest", e);
+        }
+    }
+
+    /** Reads and removes the manifest, then starts loading its chunks */
+    static void onServerStarted(ServerStartedEvent event)
+    {
+        MinecraftServer server = event.getServer();
+        ConfigSnapshot config = Config.get();
+        Path file = getFile(server);
+        ChunkManifest manifest;
+
+        try
+        {
+            manifest = ChunkManifest.load(file);
+            Files.deleteIfExists(file);
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Could not read chunk manifest", e);
+            return;
+        }
+
+        if (manifest == null || !config.preload)
+            return;
+
+        if (TICKET == null)
+            TICKET = TicketType.create("forgeautoshutdown:preload", Comparator.comparingLong(ChunkPos::toLong), config.preloadTicks);
+
+        int tickets = 0;
+
+        for (Map.Entry<String, Set<Long>> dimension : manifest.getChunks().entrySet())
+        {
+            ResourceLocation id = ResourceLocation.tryParse(dimension.getKey());
+            ServerLevel level = id == null ? null : server.getLevel(ResourceKey.create(Registry.DIMENSION_REGISTRY, id));
+
+            if (level == null)
+            {
+                LOGGER.debug("Dimension {} from the chunk manifest no longer exists", dimension.getKey());
+                continue;
+            }
+
+            for (long chunk : dimension.getValue())
+            {
+                ChunkPos pos = new ChunkPos(chunk);
+                level.getChunkSource().addRegionTicket(TICKET, pos, 0, pos);
+                tickets++;
+            }
+        }
+
+        LOGGER.info(
+            "Preloading {} chunks around the last positions of {} players",
+            tickets,
+            manifest.getPositions().size()
+        );
+    }
+
+    private static Path getFile(MinecraftServer server)
+    {
+        return Server.getDataPath(server).resolve(FILE);
+    }
+
+    private ChunkPreloader() { }
+}
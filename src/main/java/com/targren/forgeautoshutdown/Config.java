@@ -1,20 +1,39 @@
 package com.targren.forgeautoshutdown;
 
+import com.targren.forgeautoshutdown.util.TickStats;
 import net.minecraftforge.common.ForgeConfigSpec;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
 /**
  * Static container class for mod's configuration values. Handles saving and loading.
+ *
+ * Code that runs while the server is up reads the {@link ConfigSnapshot} from {@link #get()}
+ * instead of these values, so that edits to the file take effect without a restart.
  */
 class Config
 {
     private static final String SCHEDULE = "Schedule";
     private static final String VOTING = "Voting";
     private static final String WATCHDOG = "Watchdog";
+    private static final String SHUTDOWN = "Shutdown";
+    private static final String METRICS = "Metrics";
     private static final String MESSAGES = "Messages";
 
+    private static final Pattern DIMENSION_THRESHOLD = Pattern.compile("\\s*[a-z0-9_.-]+:[a-z0-9_./-]+\\s*=\\s*\\d{1,5}\\s*");
+
     static final ForgeConfigSpec SPEC;
 
+    private static volatile ConfigSnapshot snapshot;
+
     static final ForgeConfigSpec.BooleanValue scheduleEnabled;
     static final ForgeConfigSpec.BooleanValue scheduleWarning;
     static final ForgeConfigSpec.BooleanValue scheduleDelay;
@@ -22,21 +41,88 @@ class Config
     static final ForgeConfigSpec.IntValue scheduleHour;
     static final ForgeConfigSpec.IntValue scheduleMinute;
     static final ForgeConfigSpec.IntValue scheduleDelayBy;
+    static final ForgeConfigSpec.ConfigValue<List<? extends String>> schedules;
+    static final ForgeConfigSpec.BooleanValue recordLoad;
+    static final ForgeConfigSpec.ConfigValue<String> coordinationDir;
+    static final ForgeConfigSpec.IntValue coordinationSlots;
+    static final ForgeConfigSpec.IntValue coordinationMaxWait;
 
     static final ForgeConfigSpec.BooleanValue voteEnabled;
     static final ForgeConfigSpec.IntValue voteInterval;
     static final ForgeConfigSpec.IntValue minVoters;
     static final ForgeConfigSpec.IntValue maxNoVotes;
+    static final ForgeConfigSpec.IntValue voteTimeout;
 
     static final ForgeConfigSpec.BooleanValue watchdogEnabled;
     static final ForgeConfigSpec.BooleanValue attemptSoftKill;
     static final ForgeConfigSpec.IntValue watchdogInterval;
     static final ForgeConfigSpec.IntValue maxTickTimeout;
+    static final ForgeConfigSpec.IntValue heartbeatInterval;
     static final ForgeConfigSpec.IntValue lowTPSThreshold;
     static final ForgeConfigSpec.IntValue lowTPSTimeout;
+    static final ForgeConfigSpec.IntValue stallThreshold;
+    static final ForgeConfigSpec.IntValue statsWindow;
+    static final ForgeConfigSpec.EnumValue<LagMetric> lagMetric;
+    static final ForgeConfigSpec.BooleanValue profilerEnabled;
+    static final ForgeConfigSpec.IntValue profilerRate;
+    static final ForgeConfigSpec.IntValue profilerMaxStacks;
+    static final ForgeConfigSpec.IntValue dimensionThreshold;
+    static final ForgeConfigSpec.ConfigValue<List<? extends String>> dimensionThresholds;
+    static final ForgeConfigSpec.ConfigValue<List<? extends String>> mitigationSteps;
+    static final ForgeConfigSpec.IntValue mitigationWait;
+    static final ForgeConfigSpec.IntValue mitigationViewDistance;
+    static final ForgeConfigSpec.IntValue mitigationSimulationDistance;
+    static final ForgeConfigSpec.IntValue mitigationItemCap;
+    static final ForgeConfigSpec.BooleanValue census;
+    static final ForgeConfigSpec.IntValue censusBudget;
+    static final ForgeConfigSpec.IntValue censusTopChunks;
+    static final ForgeConfigSpec.BooleanValue threadHealth;
+    static final ForgeConfigSpec.ConfigValue<List<? extends String>> threadPatterns;
+    static final ForgeConfigSpec.IntValue spinThreshold;
+    static final ForgeConfigSpec.IntValue spinTimeout;
+    static final ForgeConfigSpec.IntValue stuckTimeout;
+    static final ForgeConfigSpec.ConfigValue<List<? extends String>> threadHealthKill;
+    static final ForgeConfigSpec.BooleanValue memoryMonitor;
+    static final ForgeConfigSpec.IntValue oldGenThreshold;
+    static final ForgeConfigSpec.IntValue oldGenStrikes;
+    static final ForgeConfigSpec.IntValue gcTimeThreshold;
+    static final ForgeConfigSpec.IntValue gcTimeWindow;
+    static final ForgeConfigSpec.BooleanValue flightRecorder;
+    static final ForgeConfigSpec.IntValue flightRecorderMaxAge;
+    static final ForgeConfigSpec.IntValue flightRecorderMaxSize;
+    static final ForgeConfigSpec.BooleanValue flightLog;
+    static final ForgeConfigSpec.IntValue flightLogRecords;
+    static final ForgeConfigSpec.IntValue softKillTimeout;
+    static final ForgeConfigSpec.IntValue softKillCeiling;
+    static final ForgeConfigSpec.BooleanValue threadDump;
+    static final ForgeConfigSpec.IntValue threadDumpTimeout;
+    static final ForgeConfigSpec.BooleanValue threadDumpHistogram;
+
+    static final ForgeConfigSpec.IntValue loginGateTimeout;
+    static final ForgeConfigSpec.IntValue drainTimeout;
+    static final ForgeConfigSpec.IntValue savePlayersTimeout;
+    static final ForgeConfigSpec.IntValue saveLevelsTimeout;
+    static final ForgeConfigSpec.BooleanValue preSave;
+    static final ForgeConfigSpec.IntValue preSaveBudget;
+    static final ForgeConfigSpec.BooleanValue preload;
+    static final ForgeConfigSpec.IntValue preloadRadius;
+    static final ForgeConfigSpec.IntValue preloadMinutes;
+    static final ForgeConfigSpec.BooleanValue admissionWarnings;
+    static final ForgeConfigSpec.IntValue admissionTPS;
+    static final ForgeConfigSpec.IntValue admissionTickTarget;
+    static final ForgeConfigSpec.BooleanValue admissionBypassOps;
+    static final ForgeConfigSpec.BooleanValue admissionBypassWhitelist;
+    static final ForgeConfigSpec.ConfigValue<List<? extends String>> admissionBypass;
+
+    static final ForgeConfigSpec.BooleanValue metricsEnabled;
+    static final ForgeConfigSpec.ConfigValue<String> metricsAddress;
+    static final ForgeConfigSpec.IntValue metricsPort;
 
     static final ForgeConfigSpec.ConfigValue<String> msgWarn;
     static final ForgeConfigSpec.ConfigValue<String> msgKick;
+    static final ForgeConfigSpec.ConfigValue<String> msgAdmissionRestart;
+    static final ForgeConfigSpec.ConfigValue<String> msgAdmissionLag;
+    static final ForgeConfigSpec.ConfigValue<String> msgAdmissionFull;
 
     static
     {
@@ -52,6 +138,27 @@ class Config
         scheduleHour = builder.defineInRange("Hour", 5, 0, 720);
         scheduleMinute = builder.defineInRange("Minute", 0, 0, 59);
         scheduleDelayBy = builder.defineInRange("DelayBy", 5, 1, 1440);
+        schedules = builder
+            .comment("Shutdown times, the soonest of which is used: \"daily HH:MM\", " +
+                "\"weekly DAY HH:MM\" (e.g. \"weekly sun 04:30\"), \"uptime HH:MM\" or " +
+                "\"window HH:MM-HH:MM\", which picks the quietest time in the window from " +
+                "recorded load. If empty, Hour, Minute and Uptime are used instead")
+            .defineList("Schedules", Collections.emptyList(), Config::isSchedule);
+        recordLoad = builder
+            .comment("Records player count and TPS every minute, for window schedules, even while " +
+                "none is configured. Always on while Schedules has a window entry")
+            .define("RecordLoad", false);
+        coordinationDir = builder
+            .comment("Directory shared by every server on this host that should take turns to restart, " +
+                "e.g. \"/srv/minecraft/.restart-slots\". Only CoordinationSlots of them shut down or " +
+                "start at once; the others' shutdowns move back until a slot is free. Empty to disable")
+            .define("CoordinationDir", "");
+        coordinationSlots = builder
+            .comment("Servers sharing CoordinationDir that may shut down or start at once")
+            .defineInRange("CoordinationSlots", 1, 1, 64);
+        coordinationMaxWait = builder
+            .comment("Minutes to wait for a restart slot, after which the server goes ahead anyway")
+            .defineInRange("CoordinationMaxWait", 30, 1, 1440);
         builder.pop();
 
         builder.comment("Allows players to shut down the server without admin intervention")
@@ -61,6 +168,9 @@ class Config
         voteInterval = builder.defineInRange("VoteInterval", 15, 0, 1440);
         minVoters = builder.defineInRange("MinVoters", 4, 1, 999);
         maxNoVotes = builder.defineInRange("MaxNoVotes", 2, 1, 999);
+        voteTimeout = builder
+            .comment("Minutes after which a vote that has not passed or failed by itself fails")
+            .defineInRange("VoteTimeout", 5, 1, 1440);
         builder.pop();
 
         builder.comment(
@@ -72,8 +182,201 @@ class Config
         attemptSoftKill = builder.define("AttemptSoftKill", true);
         watchdogInterval = builder.defineInRange("Interval", 10, 1, 3600);
         maxTickTimeout = builder.defineInRange("Timeout", 40, 1, 3600);
+        heartbeatInterval = builder
+            .comment("Milliseconds between checks of the server thread's heartbeat, which it " +
+                "writes at the end of every tick. Hangs are timed from the last heartbeat")
+            .defineInRange("HeartbeatInterval", 250, 10, 5000);
         lowTPSThreshold = builder.defineInRange("LowTPSThreshold", 10, 0, 19);
         lowTPSTimeout = builder.defineInRange("LowTPSTimeout", 30, 1, 3600);
+        stallThreshold = builder
+            .comment("Milliseconds of GC pauses, or of the watchdog itself running late, to report " +
+                "as a whole JVM stall. Such pauses never count towards Timeout")
+            .defineInRange("StallThreshold", 1000, 100, 60000);
+        statsWindow = builder
+            .comment("Amount of most recent ticks that tick time percentiles are taken over")
+            .defineInRange("StatsWindow", 1200, 20, 72000);
+        lagMetric = builder
+            .comment("Tick time statistic to compare against LowTPSThreshold. MEAN is the " +
+                "server's own 100 tick average; the others are taken over StatsWindow ticks")
+            .defineEnum("LagMetric", LagMetric.MEAN);
+        profilerEnabled = builder
+            .comment("Samples the server thread's stack during hangs and low TPS, and writes " +
+                "a collapsed stack file for flame graphs before the server is killed")
+            .define("ProfilerEnabled", true);
+        profilerRate = builder
+            .comment("Stack samples to take per second while profiling")
+            .defineInRange("ProfilerRate", 10, 1, 1000);
+        profilerMaxStacks = builder
+            .comment("Amount of distinct stacks to count before lumping the rest together")
+            .defineInRange("ProfilerMaxStacks", 5000, 100, 100000);
+        dimensionThreshold = builder
+            .comment("Tick time in ms, by LagMetric, above which a single dimension is reported " +
+                "to the log and online operators after LowTPSTimeout seconds. 0 to disable")
+            .defineInRange("DimensionThreshold", 0, 0, 60000);
+        dimensionThresholds = builder
+            .comment("Per dimension overrides of DimensionThreshold, e.g. \"minecraft:the_nether=20\"")
+            .defineList("DimensionThresholds", Collections.emptyList(), Config::isDimensionThreshold);
+        mitigationSteps = builder
+            .comment("Steps to try, in order, once TPS has been low for LowTPSTimeout, before " +
+                "the server is killed: \"view_distance\", \"clear_items\" and \"mob_spawning\". " +
+                "\"clear_items\" deletes players' dropped items for good. Empty to kill right away")
+            .defineList("MitigationSteps", Collections.emptyList(),
+                LagMitigation.Step::isStep);
+        mitigationWait = builder
+            .comment("Seconds each step is given to bring TPS back before the next, and seconds " +
+                "TPS must stay healthy before every step is undone")
+            .defineInRange("MitigationWait", 60, 10, 3600);
+        mitigationViewDistance = builder
+            .comment("View distance in chunks the view_distance step lowers to")
+            .defineInRange("MitigationViewDistance", 6, 2, 32);
+        mitigationSimulationDistance = builder
+            .comment("Simulation distance in chunks the view_distance step lowers to")
+            .defineInRange("MitigationSimulationDistance", 4, 2, 32);
+        mitigationItemCap = builder
+            .comment("Item and XP orb entities per chunk the clear_items step leaves, keeping the newest")
+            .defineInRange("MitigationItemCap", 32, 0, 10000);
+        census = builder
+            .comment("Counts loaded chunks, entities and ticking block entities of every level " +
+                "when TPS first drops below LowTPSThreshold, and logs the densest chunks. At " +
+                "most once every 10 minutes; also available as `/autoshutdown census`")
+            .define("Census", true);
+        censusBudget = builder
+            .comment("Milliseconds per tick the census may use")
+            .defineInRange("CensusBudget", 2, 1, 20);
+        censusTopChunks = builder
+            .comment("Amount of densest chunks per level to report")
+            .defineInRange("CensusTopChunks", 10, 1, 100);
+        threadHealth = builder
+            .comment("Checks the threads named by ThreadPatterns on every Interval for deadlocks, " +
+                "spinning and being stuck in the same stack, which leave the server ticking but " +
+                "unable to load chunks or take connections")
+            .define("ThreadHealth", true);
+        threadPatterns = builder
+            .comment("Regular expressions matching the whole name of each thread to check")
+            .defineList("ThreadPatterns",
+                List.of("Worker-Main-\\d+", "IO-Worker-\\d+", "Netty (Epoll )?Server IO #\\d+"),
+                Config::isPattern);
+        spinThreshold = builder
+            .comment("Percent of a core a thread must keep busy throughout SpinTimeout to count as spinning")
+            .defineInRange("SpinThreshold", 90, 10, 100);
+        spinTimeout = builder
+            .comment("Seconds a thread must keep spinning to be reported")
+            .defineInRange("SpinTimeout", 120, 1, 3600);
+        stuckTimeout = builder
+            .comment("Seconds a thread must stay blocked or running in the same stack to be reported")
+            .defineInRange("StuckTimeout", 120, 1, 3600);
+        threadHealthKill = builder
+            .comment("Thread faults that kill the server as per AttemptSoftKill, rather than only " +
+                "being logged: \"deadlock\", \"spinning\" and \"stuck\". Empty to only log them")
+            .defineList("ThreadHealthKill", Collections.emptyList(), ThreadHealth.Fault::isFault);
+        memoryMonitor = builder
+            .comment("Starts a warned shutdown when the heap is close to running out")
+            .define("MemoryMonitor", true);
+        oldGenThreshold = builder
+            .comment("Percentage of the old generation still in use after GC that counts as a strike")
+            .defineInRange("OldGenThreshold", 90, 50, 99);
+        oldGenStrikes = builder
+            .comment("Strikes in a row after which a shutdown is started")
+            .defineInRange("OldGenStrikes", 3, 1, 100);
+        gcTimeThreshold = builder
+            .comment("Percentage of GcTimeWindow spent in GC pauses after which a shutdown is started")
+            .defineInRange("GcTimeThreshold", 30, 1, 100);
+        gcTimeWindow = builder
+            .comment("Seconds of GC pause history to compare against GcTimeThreshold")
+            .defineInRange("GcTimeWindow", 60, 10, 3600);
+        flightRecorder = builder
+            .comment("Keeps a rolling JDK Flight Recorder recording, and writes it to a file " +
+                "before the server is killed for hanging or low TPS")
+            .define("FlightRecorder", false);
+        flightRecorderMaxAge = builder
+            .comment("Minutes of the most recent recording to keep")
+            .defineInRange("FlightRecorderMaxAge", 10, 1, 1440);
+        flightRecorderMaxSize = builder
+            .comment("Megabytes of the most recent recording to keep")
+            .defineInRange("FlightRecorderMaxSize", 100, 1, 10000);
+        flightLog = builder
+            .comment("Appends scheduled tasks, shutdown stages and, if enabled, the watchdog's checks and " +
+                "state changes to a small memory-mapped ring file, forgeautoshutdown/flight-log.bin, which " +
+                "survives a hard kill that loses the end of the log")
+            .define("FlightLog", false);
+        flightLogRecords = builder
+            .comment("Most recent records to keep in the flight log, at 64 bytes each")
+            .defineInRange("FlightLogRecords", 16384, 1024, 1048576);
+        softKillTimeout = builder
+            .comment("Seconds a soft kill may go without saving any chunk, player or level before " +
+                "it counts as stuck and a hard kill follows right away")
+            .defineInRange("SoftKillTimeout", 10, 1, 600);
+        softKillCeiling = builder
+            .comment("Seconds a soft kill that is still saving is waited for at most before a hard kill")
+            .defineInRange("SoftKillCeiling", 300, 1, 3600);
+        threadDump = builder
+            .comment("Writes a thread dump with lock owners and a deadlock report before a hard kill")
+            .define("ThreadDump", true);
+        threadDumpTimeout = builder
+            .comment("Seconds the thread dump may take before the server is halted regardless")
+            .defineInRange("ThreadDumpTimeout", 5, 1, 60);
+        threadDumpHistogram = builder
+            .comment("Adds a class histogram of the heap to the thread dump. This runs a full GC, " +
+                "so may not finish within ThreadDumpTimeout on large heaps")
+            .define("ThreadDumpHistogram", false);
+        builder.pop();
+
+        builder.comment(
+            "Time limits in seconds for each stage of a graceful shutdown. A stage that goes " +
+            "over its limit skips the stages after it, and the server is halted right away"
+        ).push(SHUTDOWN);
+
+        loginGateTimeout = builder.defineInRange("LoginGateTimeout", 5, 1, 3600);
+        drainTimeout = builder.defineInRange("DrainTimeout", 10, 1, 3600);
+        savePlayersTimeout = builder.defineInRange("SavePlayersTimeout", 30, 1, 3600);
+        saveLevelsTimeout = builder.defineInRange("SaveLevelsTimeout", 300, 1, 3600);
+        preSave = builder
+            .comment("Saves players and levels a little at a time during the shutdown warnings. Reaches " +
+                "into unexported server methods, so is off until tried against the mods in use")
+            .define("PreSave", false);
+        preSaveBudget = builder
+            .comment("Milliseconds per tick that pre-saving may use")
+            .defineInRange("PreSaveBudget", 10, 1, 45);
+        preload = builder
+            .comment("Writes down which chunks players are in during a graceful shutdown, and " +
+                "loads them in the background on the next start, before players reconnect")
+            .define("Preload", false);
+        preloadRadius = builder
+            .comment("Radius in chunks around each player to preload")
+            .defineInRange("PreloadRadius", 3, 0, 16);
+        preloadMinutes = builder
+            .comment("Minutes preloaded chunks are kept loaded for players to come back to")
+            .defineInRange("PreloadMinutes", 5, 1, 60);
+        admissionWarnings = builder
+            .comment("Refuses new logins once the shutdown warnings have begun")
+            .define("AdmissionWarnings", false);
+        admissionTPS = builder
+            .comment("Refuses new logins while TPS, by LagMetric, is below this. Needs the watchdog. 0 to disable")
+            .defineInRange("AdmissionTPS", 0, 0, 20);
+        admissionTickTarget = builder
+            .comment("Tick time in ms to keep under by capping players: the cap is the players online, " +
+                "scaled by this over the tick time measured at the last watchdog check. 0 to disable")
+            .defineInRange("AdmissionTickTarget", 0, 0, 1000);
+        admissionBypassOps = builder
+            .comment("Lets operators log in whenever new logins are being refused")
+            .define("AdmissionBypassOps", true);
+        admissionBypassWhitelist = builder
+            .comment("Lets whitelisted players log in whenever new logins are being refused")
+            .define("AdmissionBypassWhitelist", false);
+        admissionBypass = builder
+            .comment("Names or UUIDs of players who may log in whenever new logins are being refused")
+            .defineList("AdmissionBypass", Collections.emptyList(), entry -> entry instanceof String);
+        builder.pop();
+
+        builder.comment("Serves watchdog, schedule, vote and shutdown metrics over HTTP at " +
+            "/metrics, in the Prometheus text format")
+            .push(METRICS);
+
+        metricsEnabled = builder.define("Enabled", false);
+        metricsAddress = builder
+            .comment("Address to listen on; keep this local unless the port is firewalled")
+            .define("Address", "127.0.0.1");
+        metricsPort = builder.defineInRange("Port", 9225, 1, 65535);
         builder.pop();
 
         builder.comment("Customizable messages for the shutdown process")
@@ -81,11 +384,31 @@ class Config
 
         msgWarn = builder.define("Warn", "Server is shutting down in %m minute(s).");
         msgKick = builder.define("Kick", "Scheduled server shutdown");
+        msgAdmissionRestart = builder.define("AdmissionRestart",
+            "Server is restarting in a few minutes; please come back once it is up again");
+        msgAdmissionLag = builder.define("AdmissionLag",
+            "Server is lagging; please try again in a few minutes");
+        msgAdmissionFull = builder.define("AdmissionFull",
+            "Server is at capacity for now; please try again in a few minutes");
         builder.pop();
 
         SPEC = builder.build();
     }
 
+    /** Gets the values of the config as last loaded or reloaded */
+    static ConfigSnapshot get()
+    {
+        return snapshot;
+    }
+
+    /** Validates the freshly loaded config, then publishes a new snapshot of it */
+    static ConfigSnapshot refresh()
+    {
+        validate();
+        snapshot = new ConfigSnapshot();
+        return snapshot;
+    }
+
     /**
      * Checks the loaded configuration and makes adjustments based on other config
      */
@@ -112,10 +435,105 @@ class Config
         }
     }
 
+    /** Gets the configured shutdown schedule entries, falling back to Hour and Minute */
+    static List<String> getSchedules()
+    {
+        List<String> entries = new ArrayList<>(schedules.get());
+
+        if (entries.isEmpty())
+            entries.add(String.format(
+                "%s %02d:%02d",
+                scheduleUptime.get() ? "uptime" : "daily",
+                scheduleHour.get(),
+                scheduleMinute.get()
+            ));
+
+        return entries;
+    }
+
+    /** Checks if load should be recorded, either by request or for a configured window schedule */
+    static boolean isRecordingLoad()
+    {
+        if (recordLoad.get())
+            return true;
+
+        if (!scheduleEnabled.get())
+            return false;
+
+        for (String entry : schedules.get())
+        {
+            if (entry.trim().toLowerCase(Locale.ROOT).startsWith("window"))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean isSchedule(Object entry)
+    {
+        return entry instanceof String && ShutdownSchedule.SPEC.matcher((String) entry).matches();
+    }
+
+    /** Parses the DimensionThresholds list into a map of dimension IDs to thresholds */
+    static Map<String, Integer> getDimensionThresholds()
+    {
+        Map<String, Integer> thresholds = new HashMap<>();
+
+        for (String entry : dimensionThresholds.get())
+        {
+            int split = entry.lastIndexOf('=');
+            thresholds.put(entry.substring(0, split).trim(), Integer.parseInt(entry.substring(split + 1).trim()));
+        }
+
+        return thresholds;
+    }
+
+    private static boolean isPattern(Object entry)
+    {
+        if (!(entry instanceof String))
+            return false;
+
+        try
+        {
+            Pattern.compile((String) entry);
+            return true;
+        }
+        catch (PatternSyntaxException e)
+        {
+            return false;
+        }
+    }
+
+    private static boolean isDimensionThreshold(Object entry)
+    {
+        return entry instanceof String && DIMENSION_THRESHOLD.matcher((String) entry).matches();
+    }
+
     static boolean isNothingEnabled()
     {
         return !scheduleEnabled.get() && !voteEnabled.get() && !watchdogEnabled.get();
     }
 
+    /** Tick time statistics the watchdog can measure lag by */
+    enum LagMetric
+    {
+        MEAN,
+        P95,
+        P99,
+        MAX;
+
+        /** Picks this statistic's tick time, in milliseconds, out of the given ones */
+        double select(double averageTickTime, TickStats.Summary ticks)
+        {
+            switch (this)
+            {
+                case P95: return ticks.p95;
+                case P99: return ticks.p99;
+                case MAX: return ticks.max;
+                default:  return averageTickTime;
+            }
+        }
+    }
+
     private Config() { }
 }
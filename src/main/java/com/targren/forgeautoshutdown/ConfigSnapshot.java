@@ -0,0 +1,169 @@
+package com.targren.forgeautoshutdown;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable copy of the config values read while the server runs, taken whenever the config
+ * is loaded or reloaded. Tasks on the scheduler and main threads read the current snapshot
+ * once per run through {@link Config#get()}, rather than going through ForgeConfigSpec for
+ * each value, and always see a consistent set of values even mid-reload.
+ *
+ * Values are kept in the units the code uses them in.
+ */
+final class ConfigSnapshot
+{
+    final boolean scheduleEnabled;
+    final boolean scheduleWarning;
+    final boolean scheduleDelay;
+    final int scheduleDelayBy;
+    final List<String> schedules;
+    final int coordinationMaxWait;
+
+    final boolean voteEnabled;
+    final long voteIntervalMillis;
+    final int minVoters;
+    final int maxNoVotes;
+    final int voteTimeout;
+
+    final boolean watchdogEnabled;
+    final boolean attemptSoftKill;
+    final int watchdogInterval;
+    final long intervalNanos;
+    final long maxTickNanos;
+    final long heartbeatNanos;
+    final int lowTPSThreshold;
+    final int lowTPSTimeout;
+    final long stallNanos;
+    final Config.LagMetric lagMetric;
+    final int dimensionThreshold;
+    final Map<String, Integer> dimensionThresholds;
+    final List<LagMitigation.Step> mitigationSteps;
+    final int mitigationWait;
+    final int mitigationViewDistance;
+    final int mitigationSimulationDistance;
+    final int mitigationItemCap;
+    final boolean census;
+    final boolean threadHealth;
+    final List<Pattern> threadPatterns;
+    final double spinThreshold;
+    final int spinTimeout;
+    final int stuckTimeout;
+    final Set<ThreadHealth.Fault> threadHealthKill;
+    final long censusBudgetNanos;
+    final int censusTopChunks;
+    final long softKillTimeoutNanos;
+    final long softKillCeilingNanos;
+    final boolean threadDump;
+    final long threadDumpTimeoutMillis;
+    final boolean threadDumpHistogram;
+
+    final int loginGateTimeout;
+    final int drainTimeout;
+    final int savePlayersTimeout;
+    final int saveLevelsTimeout;
+    final boolean preSave;
+    final long preSaveBudgetNanos;
+    final boolean preload;
+    final int preloadRadius;
+    final int preloadTicks;
+    final boolean admissionWarnings;
+    final int admissionTPS;
+    final int admissionTickTarget;
+    final boolean admissionBypassOps;
+    final boolean admissionBypassWhitelist;
+    /** Lower case names and UUIDs */
+    final Set<String> admissionBypass;
+
+    final String msgWarn;
+    final String msgKick;
+    final String msgAdmissionRestart;
+    final String msgAdmissionLag;
+    final String msgAdmissionFull;
+
+    /** Reads every value from the loaded config */
+    ConfigSnapshot()
+    {
+        scheduleEnabled = Config.scheduleEnabled.get();
+        scheduleWarning = Config.scheduleWarning.get();
+        scheduleDelay = Config.scheduleDelay.get();
+        scheduleDelayBy = Config.scheduleDelayBy.get();
+        schedules = Collections.unmodifiableList(Config.getSchedules());
+        coordinationMaxWait = Config.coordinationMaxWait.get();
+
+        voteEnabled = Config.voteEnabled.get();
+        voteIntervalMillis = TimeUnit.MINUTES.toMillis(Config.voteInterval.get());
+        minVoters = Config.minVoters.get();
+        maxNoVotes = Config.maxNoVotes.get();
+        voteTimeout = Config.voteTimeout.get();
+
+        watchdogEnabled = Config.watchdogEnabled.get();
+        attemptSoftKill = Config.attemptSoftKill.get();
+        watchdogInterval = Config.watchdogInterval.get();
+        intervalNanos = TimeUnit.SECONDS.toNanos(watchdogInterval);
+        maxTickNanos = TimeUnit.SECONDS.toNanos(Config.maxTickTimeout.get());
+        heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(Config.heartbeatInterval.get());
+        lowTPSThreshold = Config.lowTPSThreshold.get();
+        lowTPSTimeout = Config.lowTPSTimeout.get();
+        stallNanos = TimeUnit.MILLISECONDS.toNanos(Config.stallThreshold.get());
+        lagMetric = Config.lagMetric.get();
+        dimensionThreshold = Config.dimensionThreshold.get();
+        dimensionThresholds = Collections.unmodifiableMap(Config.getDimensionThresholds());
+        mitigationSteps = Config.mitigationSteps.get().stream()
+            .map(LagMitigation.Step::parse)
+            .distinct()
+            .collect(Collectors.toUnmodifiableList());
+        mitigationWait = Config.mitigationWait.get();
+        mitigationViewDistance = Config.mitigationViewDistance.get();
+        mitigationSimulationDistance = Config.mitigationSimulationDistance.get();
+        mitigationItemCap = Config.mitigationItemCap.get();
+        census = Config.census.get();
+        threadHealth = Config.threadHealth.get();
+        threadPatterns = Config.threadPatterns.get().stream()
+            .map(Pattern::compile)
+            .collect(Collectors.toUnmodifiableList());
+        spinThreshold = Config.spinThreshold.get() / 100.0;
+        spinTimeout = Config.spinTimeout.get();
+        stuckTimeout = Config.stuckTimeout.get();
+        threadHealthKill = Config.threadHealthKill.get().stream()
+            .map(ThreadHealth.Fault::parse)
+            .collect(Collectors.toUnmodifiableSet());
+        censusBudgetNanos = TimeUnit.MILLISECONDS.toNanos(Config.censusBudget.get());
+        censusTopChunks = Config.censusTopChunks.get();
+        softKillTimeoutNanos = TimeUnit.SECONDS.toNanos(Config.softKillTimeout.get());
+        softKillCeilingNanos = TimeUnit.SECONDS.toNanos(Config.softKillCeiling.get());
+        threadDump = Config.threadDump.get();
+        threadDumpTimeoutMillis = TimeUnit.SECONDS.toMillis(Config.threadDumpTimeout.get());
+        threadDumpHistogram = Config.threadDumpHistogram.get();
+
+        loginGateTimeout = Config.loginGateTimeout.get();
+        drainTimeout = Config.drainTimeout.get();
+        savePlayersTimeout = Config.savePlayersTimeout.get();
+        saveLevelsTimeout = Config.saveLevelsTimeout.get();
+        preSave = Config.preSave.get();
+        preSaveBudgetNanos = TimeUnit.MILLISECONDS.toNanos(Config.preSaveBudget.get());
+        preload = Config.preload.get();
+        preloadRadius = Config.preloadRadius.get();
+        preloadTicks = (int) TimeUnit.MINUTES.toSeconds(Config.preloadMinutes.get()) * 20;
+        admissionWarnings = Config.admissionWarnings.get();
+        admissionTPS = Config.admissionTPS.get();
+        admissionTickTarget = Config.admissionTickTarget.get();
+        admissionBypassOps = Config.admissionBypassOps.get();
+        admissionBypassWhitelist = Config.admissionBypassWhitelist.get();
+        admissionBypass = Config.admissionBypass.get().stream()
+            .map(entry -> entry.trim().toLowerCase(Locale.ROOT))
+            .collect(Collectors.toUnmodifiableSet());
+
+        msgWarn = Config.msgWarn.get();
+        msgKick = Config.msgKick.get();
+        msgAdmissionRestart = Config.msgAdmissionRestart.get();
+        msgAdmissionLag = Config.msgAdmissionLag.get();
+        msgAdmissionFull = Config.msgAdmissionFull.get();
+    }
+}
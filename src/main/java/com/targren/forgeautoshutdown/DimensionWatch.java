@@ -0,0 +1,101 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.Chat;
+import com.targren.forgeautoshutdown.util.TickStats;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.Level;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks the tick time of each dimension against its configured threshold for the watchdog,
+ * so that a single runaway dimension can be named before it drags the whole server down
+ */
+class DimensionWatch
+{
+    private final Logger logger = ForgeAutoShutdown.LOGGER;
+    /** Seconds each dimension has been over its threshold for */
+    private final Map<ResourceKey<Level>, Integer> overSeconds = new HashMap<>();
+
+    private ResourceKey<Level> worst = null;
+    private double worstTickTime = 0;
+
+    /** Measures every dimension and reports any that is over its threshold for too long */
+    void check(MinecraftServer server)
+    {
+        Map<ResourceKey<Level>, TickStats> levels = TickMonitor.getLevelStats();
+        ConfigSnapshot config = Config.get();
+        Config.LagMetric metric = config.lagMetric;
+        int interval = config.watchdogInterval;
+        int timeout = config.lowTPSTimeout;
+
+        worst = null;
+        worstTickTime = 0;
+
+        // Null once the server has stopped, should a check still be in flight
+        if (levels == null)
+            return;
+
+        for (Map.Entry<ResourceKey<Level>, TickStats> entry : levels.entrySet())
+        {
+            ResourceKey<Level> dimension = entry.getKey();
+            double tickTime = metric.select(getAverageTickTime(server, dimension), entry.getValue().summarize());
+
+            if (worst == null || tickTime > worstTickTime)
+            {
+                worst = dimension;
+                worstTickTime = tickTime;
+            }
+
+            String id = dimension.location().toString();
+            int threshold = config.dimensionThresholds.getOrDefault(id, config.dimensionThreshold);
+
+            if (threshold <= 0 || tickTime <= threshold)
+            {
+                if (overSeconds.remove(dimension) != null)
+                    logger.debug("Dimension {} back under {} ms per tick", id, threshold);
+
+                continue;
+            }
+
+            int overSec = overSeconds.merge(dimension, interval, Integer::sum);
+            logger.trace("Dimension {} over {} ms per tick since {} seconds", id, threshold, overSec);
+
+            // Only report once per episode, when the dimension first goes over the timeout
+            if (overSec >= timeout && overSec - interval < timeout)
+            {
+                String time = String.format("%.2f", tickTime);
+
+                logger.warn("Dimension {} has taken {} ms per tick ({}) for {} seconds", id, time, metric, overSec);
+                server.execute(() -> Chat.toOps(server, "forgeautoshutdown.msg.dimensionlag", id, time, overSec));
+            }
+        }
+    }
+
+    /** Describes the slowest dimension as of the last check, for lag reports */
+    String describeWorst()
+    {
+        if (worst == null)
+            return "none";
+
+        return String.format("%s (%.2f ms per tick)", worst.location(), worstTickTime);
+    }
+
+    /** Forge's own 100 tick average for the given dimension, in milliseconds */
+    private static double getAverageTickTime(MinecraftServer server, ResourceKey<Level> dimension)
+    {
+        long[] times = server.getTickTime(dimension);
+
+        if (times == null || times.length == 0)
+            return 0;
+
+        long total = 0L;
+        for (long time : times)
+            total += time;
+
+        return total / (double) times.length * 1.0E-6D;
+    }
+}
@@ -0,0 +1,101 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.FlightLog;
+import com.targren.forgeautoshutdown.util.Server;
+import com.targren.forgeautoshutdown.util.TickStats;
+import net.minecraft.server.MinecraftServer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Singleton that appends the watchdog's and scheduler's telemetry to a {@link FlightLog} ring
+ * in the mod's data directory, which outlives a hard kill that loses the server log's tail.
+ *
+ * Each record is stamped with the server's figures at the time: tick count and players read
+ * straight from the server, and tick time and TPS as of the last watchdog check.
+ */
+public class FlightLogWriter
+{
+    private static final String FILE = "flight-log.bin";
+
+    private static volatile FlightLogWriter INSTANCE;
+
+    /** Maps the ring file, and marks the start of this run in it */
+    public static void create(MinecraftServer server)
+    {
+        if (INSTANCE != null)
+            throw new RuntimeException("FlightLogWriter can only be created once");
+
+        try
+        {
+            INSTANCE = new FlightLogWriter(server);
+            record(FlightLog.Kind.START, 0L);
+        }
+        catch (IOException e)
+        {
+            ForgeAutoShutdown.LOGGER.error("Could not open flight log", e);
+        }
+    }
+
+    /** Flushes and closes the ring file once the server has stopped */
+    static void destroy()
+    {
+        FlightLogWriter writer = INSTANCE;
+
+        if (writer == null)
+            return;
+
+        INSTANCE = null;
+
+        try
+        {
+            writer.log.close();
+        }
+        catch (IOException e)
+        {
+            ForgeAutoShutdown.LOGGER.warn("Could not close flight log", e);
+        }
+    }
+
+    /** Appends a record, if the flight log is open. Safe to call from any thread. */
+    public static void record(FlightLog.Kind kind, long value)
+    {
+        if (INSTANCE != null)
+            INSTANCE.append(kind, value);
+    }
+
+    /** Flushes the ring to disk; called just before a hard kill */
+    public static void force()
+    {
+        if (INSTANCE != null)
+            INSTANCE.log.force();
+    }
+
+    private final MinecraftServer server;
+    private final FlightLog log;
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private FlightLogWriter(MinecraftServer server) throws IOException
+    {
+        this.server = server;
+        this.log = new FlightLog(Server.getDataPath(server).resolve(FILE), Config.flightLogRecords.get());
+    }
+
+    private void append(FlightLog.Kind kind, long value)
+    {
+        TickStats.Summary ticks = Metrics.ticks;
+
+        log.append(
+            kind,
+            value,
+            server.getTickCount(),
+            Metrics.averageTickMillis,
+            Metrics.tps,
+            ticks == null ? 0 : ticks.p99,
+            server.getPlayerCount(),
+            memory.getHeapMemoryUsage().getUsed()
+        );
+    }
+}
@@ -0,0 +1,212 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.Server;
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.Timespan;
+import net.minecraft.server.MinecraftServer;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton that keeps a rolling JDK Flight Recorder recording of the last few minutes,
+ * along with the mod's own events, and dumps it to disk before the watchdog kills the server.
+ *
+ * The recording uses the JDK's "default" settings, which are meant to be left on in
+ * production. Its chunks are kept in the JFR repository, as max age and size only apply to
+ * recordings kept on disk, and are dropped oldest first once either limit is reached.
+ */
+public class FlightRecorder
+{
+    private static volatile FlightRecorder INSTANCE;
+
+    /** Starts the rolling recording */
+    public static void create(MinecraftServer server)
+    {
+        if (INSTANCE != null)
+            throw new RuntimeException("FlightRecorder can only be created once");
+
+        Logger logger = ForgeAutoShutdown.LOGGER;
+
+        try
+        {
+            INSTANCE = new FlightRecorder(server);
+            logger.debug("Flight recording started; keeping the last {} minutes", Config.flightRecorderMaxAge.get());
+        }
+        catch (IOException | ParseException | IllegalStateException | SecurityException e)
+        {
+            logger.error("Could not start flight recording", e);
+        }
+        catch (NoClassDefFoundError e)
+        {
+            logger.error("Could not start flight recording; this Java runtime has no jdk.jfr module");
+        }
+    }
+
+    /** Ends the recording once the server has stopped */
+    static void destroy()
+    {
+        FlightRecorder recorder = INSTANCE;
+
+        if (recorder == null)
+            return;
+
+        INSTANCE = null;
+        recorder.recording.close();
+    }
+
+    /**
+     * Checks if recording. The mod's events are only created while it is, so that nothing of
+     * jdk.jfr is loaded on runtimes without it. Safe to call from any thread.
+     */
+    public static boolean isActive()
+    {
+        return INSTANCE != null;
+    }
+
+    /**
+     * Writes the recording so far to a timestamped file, if recording. Safe to call from any
+     * thread.
+     * @param cause Short description of why, used as the file's prefix
+     */
+    public static void dump(String cause)
+    {
+        if (INSTANCE != null)
+            INSTANCE.write(cause);
+    }
+
+    private final Logger logger = ForgeAutoShutdown.LOGGER;
+    private final MinecraftServer server;
+    private final Recording recording;
+
+    private FlightRecorder(MinecraftServer server) throws IOException, ParseException
+    {
+        this.server = server;
+        this.recording = new Recording(Configuration.getConfiguration("default"));
+
+        recording.setName("ForgeAutoShutdown");
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofMinutes(Config.flightRecorderMaxAge.get()));
+        recording.setMaxSize(Config.flightRecorderMaxSize.get() * 1024L * 1024L);
+
+        recording.enable(WatchdogCheckEvent.class);
+        recording.enable(ScheduledTaskEvent.class).withThreshold(Duration.ZERO);
+        recording.enable(ShutdownWarningEvent.class);
+        recording.enable(ShutdownStageEvent.class).withThreshold(Duration.ZERO);
+        recording.enable(WatchdogKillEvent.class);
+        recording.start();
+    }
+
+    private synchronized void write(String cause)
+    {
+        long begin = System.nanoTime();
+
+        try
+        {
+            Path path = Server.getDumpPath(server, cause, "jfr");
+            Files.createDirectories(path.getParent());
+            recording.dump(path);
+
+            logger.warn(
+                "Flight recording written to {} in {} ms",
+                path,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin)
+            );
+        }
+        catch (IOException | IllegalStateException e)
+        {
+            logger.error("Could not write flight recording", e);
+        }
+    }
+
+    @Name("forgeautoshutdown.WatchdogCheck")
+    @Label("Watchdog Check")
+    @Category("ForgeAutoShutdown")
+    @Description("Tick time and TPS as seen by a single watchdog check")
+    static class WatchdogCheckEvent extends Event
+    {
+        @Label("TPS")
+        double tps;
+
+        @Label("Average Tick Time")
+        @Description("Server's own 100 tick average, in milliseconds")
+        double averageTickTime;
+
+        @Label("p99 Tick Time")
+        @Description("Over the last StatsWindow ticks, in milliseconds")
+        double p99TickTime;
+
+        @Label("Max Tick Time")
+        @Description("Over the last StatsWindow ticks, in milliseconds")
+        double maxTickTime;
+
+        @Label("Hanging")
+        boolean hanging;
+
+        @Label("Lag Time")
+        @Timespan(Timespan.SECONDS)
+        long lagSeconds;
+    }
+
+    @Name("forgeautoshutdown.ScheduledTask")
+    @Label("Scheduled Task")
+    @Category("ForgeAutoShutdown")
+    @Description("A timed task run by the mod's scheduler, or handed to the main thread by it")
+    static class ScheduledTaskEvent extends Event
+    {
+        @Label("Task")
+        String task;
+    }
+
+    @Name("forgeautoshutdown.ShutdownWarning")
+    @Label("Shutdown Warning")
+    @Category("ForgeAutoShutdown")
+    static class ShutdownWarningEvent extends Event
+    {
+        @Label("Minutes Left")
+        int minutesLeft;
+
+        @Label("Message")
+        String message;
+    }
+
+    @Name("forgeautoshutdown.ShutdownStage")
+    @Label("Shutdown Stage")
+    @Category("ForgeAutoShutdown")
+    @Description("A single stage of a graceful shutdown, from hand-off until done or timed out")
+    static class ShutdownStageEvent extends Event
+    {
+        @Label("Stage")
+        String stage;
+
+        @Label("Time Limit")
+        @Timespan(Timespan.SECONDS)
+        long timeout;
+
+        @Label("Timed Out")
+        boolean timedOut;
+    }
+
+    @Name("forgeautoshutdown.WatchdogKill")
+    @Label("Watchdog Kill")
+    @Category("ForgeAutoShutdown")
+    static class WatchdogKillEvent extends Event
+    {
+        @Label("Cause")
+        String cause;
+
+        @Label("Hard")
+        boolean hard;
+    }
+}
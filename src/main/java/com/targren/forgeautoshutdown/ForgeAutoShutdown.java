@@ -4,9 +4,13 @@ import net.minecraft.server.MinecraftServer;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.RegisterCommandsEvent;
 import net.minecraftforge.event.server.ServerStartingEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
 import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.config.ModConfig;
+import net.minecraftforge.fml.event.config.ModConfigEvent;
+import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -22,8 +26,24 @@ public class ForgeAutoShutdown
     public ForgeAutoShutdown()
     {
         ModLoadingContext.get().registerConfig(ModConfig.Type.SERVER, Config.SPEC);
+        FMLJavaModLoadingContext.get().getModEventBus().addListener(this::onConfigReloading);
         MinecraftForge.EVENT_BUS.addListener(this::onRegisterCommands);
+        MinecraftForge.EVENT_BUS.addListener(RestartCoordinator::onServerAboutToStart);
         MinecraftForge.EVENT_BUS.addListener(this::onServerStarting);
+        MinecraftForge.EVENT_BUS.addListener(RestartCoordinator::onServerStarted);
+        MinecraftForge.EVENT_BUS.addListener(ChunkPreloader::onServerStarted);
+        MinecraftForge.EVENT_BUS.addListener(ShutdownPipeline::onServerStopped);
+        MinecraftForge.EVENT_BUS.addListener(RestartCoordinator::onServerStopped);
+        MinecraftForge.EVENT_BUS.addListener(EventPriority.LOWEST, this::onServerStopped);
+        MinecraftForge.EVENT_BUS.addListener(LoadRecorder::onServerStopping);
+        MinecraftForge.EVENT_BUS.addListener(MetricsServer::onServerStopping);
+        MinecraftForge.EVENT_BUS.addListener(SaveProgress::onServerStopping);
+        MinecraftForge.EVENT_BUS.addListener(SaveProgress::onChunkSave);
+        MinecraftForge.EVENT_BUS.addListener(SaveProgress::onPlayerSave);
+        MinecraftForge.EVENT_BUS.addListener(SaveProgress::onLevelSave);
+        MinecraftForge.EVENT_BUS.addListener(EventPriority.HIGHEST, LoginGate::onPlayerNegotiation);
+        MinecraftForge.EVENT_BUS.addListener(ShutdownCommand::onPlayerLoggedIn);
+        MinecraftForge.EVENT_BUS.addListener(ShutdownCommand::onPlayerLoggedOut);
     }
 
     public static MinecraftServer getServer()
@@ -34,12 +54,22 @@ public class ForgeAutoShutdown
     private void onRegisterCommands(RegisterCommandsEvent event)
     {
         ShutdownCommand.register(event.getDispatcher());
+        AutoShutdownCommand.register(event.getDispatcher());
     }
 
     private void onServerStarting(ServerStartingEvent event)
     {
         server = event.getServer();
-        Config.validate();
+        ConfigSnapshot config = Config.refresh();
+        TickMonitor.create();
+        Scheduler.create(server);
+        LoadRecorder.create(server);
+
+        if (Config.flightLog.get())
+            FlightLogWriter.create(server);
+
+        if (Config.metricsEnabled.get())
+            MetricsServer.create();
 
         if (Config.isNothingEnabled())
         {
@@ -48,10 +78,47 @@ public class ForgeAutoShutdown
             return;
         }
 
-        if (Config.scheduleEnabled.get())
+        if (config.scheduleEnabled)
             ShutdownTask.create(server);
 
-        if (Config.watchdogEnabled.get())
+        if (config.watchdogEnabled)
             WatchdogTask.create(server);
     }
+
+    /**
+     * Tears down everything created as the server started, after every other handler has seen
+     * it stop, so that a server started again in the same JVM (e.g. singleplayer) starts fresh
+     */
+    private void onServerStopped(ServerStoppedEvent event)
+    {
+        ShutdownTask.destroy();
+        WatchdogTask.destroy();
+        Scheduler.destroy();
+        TickMonitor.destroy();
+        LoadRecorder.destroy();
+        PreSaveTask.destroy();
+        WorldCensus.destroy();
+        FlightRecorder.destroy();
+        FlightLogWriter.destroy();
+        ShutdownPipeline.destroy();
+        LoginGate.reset();
+        ShutdownCommand.reset();
+        server = null;
+    }
+
+    /**
+     * Runs from the config file watcher's thread when the server config is edited. Timers
+     * already running are moved to the new schedule and interval; features that were off
+     * when the server started still need a restart to begin.
+     */
+    private void onConfigReloading(ModConfigEvent.Reloading event)
+    {
+        if (event.getConfig().getSpec() != Config.SPEC || server == null)
+            return;
+
+        Config.refresh();
+        LOGGER.info("Config reloaded");
+        ShutdownTask.reschedule();
+        WatchdogTask.reschedule();
+    }
 }
@@ -0,0 +1,259 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.FlightLog;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.players.PlayerList;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.ExperienceOrb;
+import net.minecraft.world.entity.MobSpawnType;
+import net.minecraft.world.entity.item.ItemEntity;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.entity.living.LivingSpawnEvent;
+import net.minecraftforge.eventbus.api.Event;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Ladder of steps the watchdog tries, one at a time, before it kills a server for low TPS.
+ *
+ * Once TPS has been low for LowTPSTimeout seconds, the next configured step is applied, and
+ * given MitigationWait seconds to bring TPS back before the one after it. Only once every
+ * step has been tried and TPS is still low is the server killed. When TPS has stayed healthy
+ * for MitigationWait seconds, every step still in effect is undone and the ladder starts over.
+ *
+ * Checks run on the scheduler thread; the steps themselves are applied on the main thread.
+ */
+class LagMitigation
+{
+    /** Mitigation steps, in the names used by the MitigationSteps config list */
+    enum Step
+    {
+        /** Lowers view and simulation distance to MitigationViewDistance and MitigationSimulationDistance */
+        VIEW_DISTANCE,
+        /** Removes the oldest item and XP orb entities of every chunk above MitigationItemCap */
+        CLEAR_ITEMS,
+        /** Stops mobs from spawning naturally; spawners, breeding and commands still work */
+        MOB_SPAWNING;
+
+        static boolean isStep(Object name)
+        {
+            if (!(name instanceof String))
+                return false;
+
+            for (Step step : values())
+            {
+                if (step.name().equalsIgnoreCase((String) name))
+                    return true;
+            }
+
+            return false;
+        }
+
+        static Step parse(String name)
+        {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final Logger logger = ForgeAutoShutdown.LOGGER;
+    private final MinecraftServer server;
+
+    /** Steps applied so far this episode; scheduler thread only */
+    private final List<Step> applied = new ArrayList<>();
+    private int sinceStepSeconds = 0;
+    private int healthySeconds = 0;
+
+    /** Distances in effect before VIEW_DISTANCE was applied; main thread only */
+    private int viewDistance = -1;
+    private int simulationDistance = -1;
+
+    private volatile boolean spawningPaused = false;
+
+    LagMitigation(MinecraftServer server)
+    {
+        this.server = server;
+        MinecraftForge.EVENT_BUS.register(this);
+    }
+
+    /** Stops listening for spawns, once the server has stopped */
+    void close()
+    {
+        MinecraftForge.EVENT_BUS.unregister(this);
+    }
+
+    /**
+     * Counts time towards the current step, or towards undoing every step; run on every check
+     * @param lagging Whether TPS is below LowTPSThreshold
+     */
+    void onCheck(ConfigSnapshot config, boolean lagging)
+    {
+        if (applied.isEmpty())
+            return;
+
+        sinceStepSeconds += config.watchdogInterval;
+
+        if (lagging)
+        {
+            healthySeconds = 0;
+            return;
+        }
+
+        healthySeconds += config.watchdogInterval;
+
+        if (healthySeconds >= config.mitigationWait)
+            undo();
+    }
+
+    /**
+     * Applies the next step, unless the last one is still being given time to work
+     * @return False if every step has been tried and given time, so the server should be killed
+     */
+    boolean escalate(ConfigSnapshot config)
+    {
+        if (!applied.isEmpty() && sinceStepSeconds < config.mitigationWait)
+            return true;
+
+        for (Step step : config.mitigationSteps)
+        {
+            if (applied.contains(step))
+                continue;
+
+            applied.add(step);
+            sinceStepSeconds = 0;
+            healthySeconds = 0;
+            Metrics.mitigationSteps = applied.size();
+            Metrics.mitigations.incrementAndGet();
+            FlightLogWriter.record(FlightLog.Kind.MITIGATION, step.ordinal());
+            logger.warn("TPS still low; applying lag mitigation step {} of {}: {}",
+                applied.size(), config.mitigationSteps.size(), step);
+
+            // The episode may now end without a kill, which would otherwise be the only dump
+            if (applied.size() == 1)
+                FlightRecorder.dump("lag");
+
+            Scheduler.get().runOnMain(() -> apply(step, config));
+            return true;
+        }
+
+        return false;
+    }
+
+    /** Undoes every step still in effect, in reverse order */
+    private void undo()
+    {
+        List<Step> steps = new ArrayList<>(applied);
+        applied.clear();
+        Metrics.mitigationSteps = 0;
+        FlightLogWriter.record(FlightLog.Kind.MITIGATION_UNDONE, steps.size());
+        logger.info("TPS recovered; undoing lag mitigation steps {}", steps);
+
+        Scheduler.get().runOnMain(() ->
+        {
+            for (int i = steps.size() - 1; i >= 0; i--)
+                revert(steps.get(i));
+        });
+    }
+
+    /** Runs from the main server thread */
+    private void apply(Step step, ConfigSnapshot config)
+    {
+        switch (step)
+        {
+            case VIEW_DISTANCE:
+                PlayerList players = server.getPlayerList();
+                viewDistance = players.getViewDistance();
+                simulationDistance = players.getSimulationDistance();
+                players.setViewDistance(Math.min(viewDistance, config.mitigationViewDistance));
+                players.setSimulationDistance(Math.min(simulationDistance, config.mitigationSimulationDistance));
+                logger.info("View distance {} -> {}, simulation distance {} -> {}",
+                    viewDistance, players.getViewDistance(), simulationDistance, players.getSimulationDistance());
+                break;
+
+            case CLEAR_ITEMS:
+                logger.info("Removed {} item and XP orb entities", clearItems(config.mitigationItemCap));
+                break;
+
+            case MOB_SPAWNING:
+                spawningPaused = true;
+                break;
+        }
+    }
+
+    /** Runs from the main server thread */
+    private void revert(Step step)
+    {
+        switch (step)
+        {
+            case VIEW_DISTANCE:
+                if (viewDistance < 0)
+                    break;
+
+                server.getPlayerList().setViewDistance(viewDistance);
+                server.getPlayerList().setSimulationDistance(simulationDistance);
+                viewDistance = -1;
+                simulationDistance = -1;
+                break;
+
+            case MOB_SPAWNING:
+                spawningPaused = false;
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /** Removes the oldest items and XP orbs of every chunk holding more than the given amount */
+    private int clearItems(int cap)
+    {
+        int removed = 0;
+
+        for (ServerLevel level : server.getAllLevels())
+        {
+            Map<Long, List<Entity>> chunks = new HashMap<>();
+
+            for (Entity entity : level.getAllEntities())
+            {
+                if (entity instanceof ItemEntity || entity instanceof ExperienceOrb)
+                    chunks.computeIfAbsent(entity.chunkPosition().toLong(), chunk -> new ArrayList<>()).add(entity);
+            }
+
+            for (List<Entity> entities : chunks.values())
+            {
+                if (entities.size() <= cap)
+                    continue;
+
+                entities.sort(Comparator.comparingInt((Entity entity) -> entity.tickCount).reversed());
+
+                for (Entity entity : entities.subList(0, entities.size() - cap))
+                {
+                    entity.discard();
+                    removed++;
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    /** Runs from the main server thread */
+    @SubscribeEvent
+    public void onCheckSpawn(LivingSpawnEvent.CheckSpawn event)
+    {
+        if (!spawningPaused || event.isSpawner())
+            return;
+
+        MobSpawnType reason = event.getSpawnReason();
+
+        if (reason == MobSpawnType.NATURAL || reason == MobSpawnType.CHUNK_GENERATION)
+            event.setResult(Event.Result.DENY);
+    }
+}
@@ -0,0 +1,106 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.LoadHistory;
+import com.targren.forgeautoshutdown.util.Server;
+import com.targren.forgeautoshutdown.util.TickStats;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton that samples player count and TPS once a minute on the scheduler thread, into a
+ * {@link LoadHistory} kept across restarts. Load-aware shutdown schedules pick their time
+ * from this history.
+ */
+public class LoadRecorder
+{
+    private static final int SAVE_EVERY_MINUTES = 15;
+
+    private static LoadRecorder INSTANCE;
+
+    /** Loads the history, then starts recording into it if enabled */
+    public static void create(MinecraftServer server)
+    {
+        if (INSTANCE != null)
+            throw new RuntimeException("LoadRecorder can only be created once");
+
+        INSTANCE = new LoadRecorder(server, Config.isRecordingLoad());
+
+        if (INSTANCE.recording)
+            Scheduler.get().scheduleAtFixedRate(INSTANCE::record, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /** Gets the load history, or null if not loaded */
+    public static LoadHistory getHistory()
+    {
+        return INSTANCE == null ? null : INSTANCE.history;
+    }
+
+    /** Forgets the history once the server has stopped; it was saved as it stopped */
+    static void destroy()
+    {
+        INSTANCE = null;
+    }
+
+    /** Saves the history as the server stops */
+    static void onServerStopping(ServerStoppingEvent event)
+    {
+        if (INSTANCE != null && INSTANCE.recording)
+            INSTANCE.save();
+    }
+
+    private final Logger logger = ForgeAutoShutdown.LOGGER;
+    private final LoadHistory history = new LoadHistory();
+    private final MinecraftServer server;
+    private final Path file;
+    /** Whether recording was enabled at startup; changing it takes a restart */
+    private final boolean recording;
+
+    private int unsavedMinutes = 0;
+
+    private LoadRecorder(MinecraftServer server, boolean recording)
+    {
+        this.server = server;
+        this.recording = recording;
+        this.file = Server.getDataPath(server).resolve("load-history.bin");
+
+        try
+        {
+            history.load(file);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not load load history; starting a new one", e);
+        }
+    }
+
+    /** Runs from the scheduler thread */
+    private void record()
+    {
+        int players = server.getPlayerCount();
+        double tps = TickStats.toTps(server.getAverageTickTime());
+
+        history.record(ZonedDateTime.now(), players, tps);
+
+        if (++unsavedMinutes >= SAVE_EVERY_MINUTES)
+            save();
+    }
+
+    private void save()
+    {
+        try
+        {
+            history.save(file);
+            unsavedMinutes = 0;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not save load history", e);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.targren.forgeautoshutdown;
+
+import com.mojang.authlib.GameProfile;
+import com.targren.forgeautoshutdown.util.TickStats;
+import net.minecraft.network.Connection;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.protocol.login.ClientboundLoginDisconnectPacket;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.players.PlayerList;
+import net.minecraftforge.event.entity.player.PlayerNegotiationEvent;
+
+import java.util.Locale;
+
+/**
+ * Static event handler that turns away players logging in once the gate is closed, and
+ * while the server is in no state to take on more players.
+ *
+ * Admission is decided off the login path: the watchdog re-evaluates it on every check
+ * from the tick time it measured anyway, and the shutdown task when its warnings begin or
+ * are called off. It refuses new logins during the warnings, while TPS is below AdmissionTPS,
+ * and above a player cap scaled to how far the tick time is from AdmissionTickTarget.
+ * Logins are checked against a few volatile fields, so while the gate is open they pay
+ * nothing more than those reads. Players are refused during login negotiation, so they are
+ * never placed in the world, loaded or saved.
+ */
+public class LoginGate
+{
+    private static volatile Component closedReason = null;
+
+    private static volatile Component admissionReason = null;
+    private static volatile int playerCap = Integer.MAX_VALUE;
+    private static volatile boolean countingDown = false;
+    private static volatile double tickMillis = 0;
+    private static volatile String admissionState = null;
+
+    /** Closes the gate; any player logging in from now on is disconnected with the reason */
+    public static void close(Component reason)
+    {
+        closedReason = reason;
+        ForgeAutoShutdown.LOGGER.info("Login gate closed: {}", reason.getString());
+    }
+
+    public static boolean isClosed()
+    {
+        return closedReason != null;
+    }
+
+    /** Opens the gate and forgets admission state, for the next server started in this JVM */
+    static synchronized void reset()
+    {
+        closedReason = null;
+        admissionReason = null;
+        playerCap = Integer.MAX_VALUE;
+        countingDown = false;
+        tickMillis = 0;
+        admissionState = null;
+    }
+
+    /**
+     * Re-evaluates admission with the watchdog's latest tick time; runs on the scheduler thread
+     * @param millis Tick time as measured by LagMetric
+     * @param players Players online now
+     */
+    static void onCheck(ConfigSnapshot config, double millis, int players)
+    {
+        tickMillis = millis;
+        updateAdmission(config, players);
+    }
+
+    /** Notes whether the shutdown warnings are counting down; runs from the main server thread */
+    static void setCountingDown(boolean value, int players)
+    {
+        if (countingDown == value)
+            return;
+
+        countingDown = value;
+        updateAdmission(Config.get(), players);
+    }
+
+    private static synchronized void updateAdmission(ConfigSnapshot config, int players)
+    {
+        double millis = tickMillis;
+        double tps = TickStats.toTps(millis);
+        Component reason = null;
+        String state = null;
+
+        if (config.admissionWarnings && countingDown)
+        {
+            reason = Component.literal(config.msgAdmissionRestart);
+            state = "shutdown warnings have begun";
+        }
+        else if (millis > 0 && tps < config.admissionTPS)
+        {
+            reason = Component.literal(config.msgAdmissionLag);
+            state = String.format("TPS %.1f is below %d", tps, config.admissionTPS);
+        }
+
+        int cap = Integer.MAX_VALUE;
+
+        if (config.admissionTickTarget > 0 && millis > 0 && players > 0)
+            cap = (int) (players * config.admissionTickTarget / millis);
+
+        admissionReason = reason;
+        playerCap = cap;
+
+        if (state == null && cap <= players)
+            state = String.format("%d players is the cap at %.1f ms per tick", cap, millis);
+
+        if (state == null ? admissionState != null : !state.equals(admissionState))
+        {
+            if (state == null)
+                ForgeAutoShutdown.LOGGER.info("Admitting new logins again");
+            else
+                ForgeAutoShutdown.LOGGER.info("Refusing new logins; {}", state);
+
+            admissionState = state;
+        }
+    }
+
+    /**
+     * Refuses a player during login negotiation, before they are placed in the world; runs
+     * from the main server thread
+     */
+    static void onPlayerNegotiation(PlayerNegotiationEvent event)
+    {
+        GameProfile profile = event.getProfile();
+        Component reason = closedReason;
+
+        if (reason != null)
+        {
+            ForgeAutoShutdown.LOGGER.info("Turned away {}; login gate is closed", profile.getName());
+            refuse(event.getConnection(), reason);
+            return;
+        }
+
+        reason = admissionReason;
+        int cap = playerCap;
+        MinecraftServer server = ForgeAutoShutdown.getServer();
+
+        if (server == null)
+            return;
+
+        // The player logging in is not counted yet
+        if (reason == null && cap != Integer.MAX_VALUE && server.getPlayerCount() >= cap)
+            reason = Component.literal(Config.get().msgAdmissionFull);
+
+        if (reason == null || canBypass(Config.get(), server.getPlayerList(), profile))
+            return;
+
+        ForgeAutoShutdown.LOGGER.info("Turned away {}: {}", profile.getName(), reason.getString());
+        Metrics.loginsRefused.incrementAndGet();
+        refuse(event.getConnection(), reason);
+    }
+
+    /** Disconnects as the login listener would, so the client shows the reason */
+    private static void refuse(Connection connection, Component reason)
+    {
+        connection.send(new ClientboundLoginDisconnectPacket(reason));
+        connection.disconnect(reason);
+    }
+
+    private static boolean canBypass(ConfigSnapshot config, PlayerList players, GameProfile profile)
+    {
+        if (config.admissionBypass.contains(profile.getName().toLowerCase(Locale.ROOT)))
+            return true;
+
+        // Offline mode profiles have no UUID until the player is accepted
+        if (profile.getId() == null)
+            return false;
+
+        return config.admissionBypass.contains(profile.getId().toString())
+            || (config.admissionBypassOps && players.isOp(profile))
+            || (config.admissionBypassWhitelist && players.isWhiteListed(profile));
+    }
+
+    private LoginGate() { }
+}
@@ -0,0 +1,200 @@
+package com.targren.forgeautoshutdown;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import net.minecraft.server.MinecraftServer;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches old generation occupancy and GC pause time, and starts a warned shutdown when the
+ * heap is close to running out, rather than waiting for an OutOfMemoryError or a hard kill.
+ *
+ * Nothing is polled: old generation pools get a collection usage threshold, whose
+ * notifications count as strikes, and every collector's notifications report the pause time
+ * and what the old generation held after each collection. Both arrive on the JMX
+ * notification thread.
+ */
+class MemoryMonitor
+{
+    private final Logger logger = ForgeAutoShutdown.LOGGER;
+    private final List<String> oldPools = new ArrayList<>();
+    private final Deque<long[]> pauses = new ArrayDeque<>();
+    private final MinecraftServer server;
+    private final NotificationListener thresholdListener = (n, h) -> onThresholdExceeded(n);
+    private final NotificationListener collectionListener = (n, h) -> onCollection(n);
+
+    private final int strikesNeeded;
+    private final double occupancy;
+    private final double gcTimeThreshold;
+    private final long windowNanos;
+
+    private int strikes = 0;
+    private long pausedMillis = 0L;
+    private boolean triggered = false;
+
+    MemoryMonitor(MinecraftServer server)
+    {
+        this.server = server;
+        this.strikesNeeded = Config.oldGenStrikes.get();
+        this.gcTimeThreshold = Config.gcTimeThreshold.get() / 100.0;
+        this.windowNanos = TimeUnit.SECONDS.toNanos(Config.gcTimeWindow.get());
+        this.occupancy = Config.oldGenThreshold.get() / 100.0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (!isOldGen(pool))
+                continue;
+
+            long max = pool.getUsage().getMax();
+            if (max <= 0)
+                continue;
+
+            pool.setCollectionUsageThreshold((long) (max * occupancy));
+            oldPools.add(pool.getName());
+            logger.debug("Memory monitor watching pool '{}' at {}% of {} MB", pool.getName(),
+                Math.round(occupancy * 100), max / 1024 / 1024);
+        }
+
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+            .addNotificationListener(thresholdListener, null, null);
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            if (collector instanceof NotificationEmitter emitter)
+                emitter.addNotificationListener(collectionListener, null, null);
+        }
+    }
+
+    /** Stops listening for notifications, once the server has stopped */
+    void close()
+    {
+        try
+        {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(thresholdListener);
+
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            {
+                if (collector instanceof NotificationEmitter emitter)
+                    emitter.removeNotificationListener(collectionListener);
+            }
+        }
+        catch (ListenerNotFoundException e)
+        {
+            logger.debug("Memory monitor listener was already removed", e);
+        }
+    }
+
+    /** Old generation pools are heap pools that support collection thresholds, apart from the young ones */
+    private static boolean isOldGen(MemoryPoolMXBean pool)
+    {
+        String name = pool.getName();
+
+        return pool.getType() == MemoryType.HEAP
+            && pool.isCollectionUsageThresholdSupported()
+            && !name.contains("Eden")
+            && !name.contains("Survivor");
+    }
+
+    /** Counts pause time towards the window only for stop-the-world collectors */
+    static boolean isPausing(String collector)
+    {
+        return !collector.contains("Cycles") && !collector.contains("Concurrent");
+    }
+
+    /** Runs from the JMX notification thread */
+    private synchronized void onThresholdExceeded(Notification notification)
+    {
+        if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()))
+            return;
+
+        MemoryNotificationInfo info = MemoryNotificationInfo.from((CompositeData) notification.getUserData());
+        strikes++;
+
+        logger.warn(
+            "Old generation '{}' still {} MB full after GC ({} of {} strikes)",
+            info.getPoolName(),
+            info.getUsage().getUsed() / 1024 / 1024,
+            strikes,
+            strikesNeeded
+        );
+
+        if (strikes >= strikesNeeded)
+            trigger("old generation stays over " + Math.round(occupancy * 100) + "% after GC");
+    }
+
+    /** Runs from the JMX notification thread */
+    private synchronized void onCollection(Notification notification)
+    {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+            return;
+
+        GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        GcInfo gc = info.getGcInfo();
+
+        // A collection that brings every old pool back under its threshold clears the strikes
+        if (strikes > 0 && isBelowThreshold(gc))
+        {
+            logger.debug("Old generation back under threshold after {}", info.getGcName());
+            strikes = 0;
+        }
+
+        if (!isPausing(info.getGcName()))
+            return;
+
+        long now = System.nanoTime();
+        pauses.addLast(new long[] { now, gc.getDuration() });
+        pausedMillis += gc.getDuration();
+
+        while (!pauses.isEmpty() && now - pauses.peekFirst()[0] > windowNanos)
+            pausedMillis -= pauses.pollFirst()[1];
+
+        double fraction = pausedMillis / (double) TimeUnit.NANOSECONDS.toMillis(windowNanos);
+        if (fraction >= gcTimeThreshold)
+            trigger(String.format("GC pauses took %.0f%% of the last %d seconds",
+                fraction * 100, TimeUnit.NANOSECONDS.toSeconds(windowNanos)));
+    }
+
+    private boolean isBelowThreshold(GcInfo gc)
+    {
+        for (String pool : oldPools)
+        {
+            MemoryUsage after = gc.getMemoryUsageAfterGc().get(pool);
+
+            if (after == null || after.getMax() <= 0)
+                continue;
+
+            if (after.getUsed() >= after.getMax() * occupancy)
+                return false;
+        }
+
+        return true;
+    }
+
+    private void trigger(String reason)
+    {
+        if (triggered)
+            return;
+
+        triggered = true;
+        logger.warn("Memory pressure: {}; starting a graceful shutdown", reason);
+        ShutdownTask.startNow(server, "memory pressure");
+    }
+}
@@ -0,0 +1,167 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.TickStats;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Static container of counters and gauges for the metrics endpoint.
+ *
+ * Each value is updated, already aggregated, by whatever it measures: the watchdog publishes
+ * the tick time summary it takes anyway, the shutdown task its countdown, and so on. Rendering
+ * a scrape only reads these fields, so it never waits on or hands work to the main thread.
+ */
+class Metrics
+{
+    static final long NONE = Long.MIN_VALUE;
+    private static final String PREFIX = "forgeautoshutdown_";
+
+    // Watchdog
+    static volatile TickStats.Summary ticks = null;
+    static volatile double averageTickMillis = 0;
+    static volatile double tps = 20;
+    static volatile boolean hanging = false;
+    static volatile int lagSeconds = 0;
+    static volatile int mitigationSteps = 0;
+    static volatile int threadsSpinning = 0;
+    static volatile int threadsStuck = 0;
+    static final AtomicLong watchdogChecks = new AtomicLong();
+    static final AtomicLong hangs = new AtomicLong();
+    static final AtomicLong lagSpells = new AtomicLong();
+    static final AtomicLong stalls = new AtomicLong();
+    static final AtomicLong mitigations = new AtomicLong();
+    static final AtomicLong deadlocks = new AtomicLong();
+    static final AtomicLong softKills = new AtomicLong();
+    static final AtomicLong hardKills = new AtomicLong();
+
+    // Scheduled shutdown
+    static volatile long nextShutdownNanos = NONE;
+    static volatile int delayMinutes = 0;
+    static volatile int warningsLeft = 0;
+    static volatile int slotWaitMinutes = 0;
+
+    // Voting
+    static volatile boolean voting = false;
+    static volatile int votesYes = 0;
+    static volatile int votesNo = 0;
+    static final AtomicLong votesStarted = new AtomicLong();
+    static final AtomicLong votesPassed = new AtomicLong();
+    static final AtomicLong votesFailed = new AtomicLong();
+
+    // Login admission
+    static final AtomicLong loginsRefused = new AtomicLong();
+
+    // Shutdown pipeline
+    static final AtomicLongArray stageMillis = new AtomicLongArray(ShutdownPipeline.Stage.values().length);
+    static final AtomicLongArray stageTimeouts = new AtomicLongArray(ShutdownPipeline.Stage.values().length);
+
+    /** Records when the next scheduled shutdown begins, as per {@link System#nanoTime()} */
+    static void setNextShutdown(long deadlineNanos)
+    {
+        nextShutdownNanos = deadlineNanos;
+    }
+
+    static void setVotes(boolean inProgress, int yes, int no)
+    {
+        voting = inProgress;
+        votesYes = yes;
+        votesNo = no;
+    }
+
+    /** Renders every metric in the Prometheus text exposition format */
+    static String render()
+    {
+        StringBuilder out = new StringBuilder(4096);
+        TickStats.Summary summary = ticks;
+
+        if (summary != null)
+        {
+            // Gauges rather than a summary: the window slides, so its sum and count are not cumulative
+            gauge(out, "tick_mean_seconds", "Mean tick time over the last StatsWindow ticks", summary.mean / 1000);
+            gauge(out, "tick_p95_seconds", "95th percentile tick time over the last StatsWindow ticks", summary.p95 / 1000);
+            gauge(out, "tick_p99_seconds", "99th percentile tick time over the last StatsWindow ticks", summary.p99 / 1000);
+            gauge(out, "tick_max_seconds", "Longest tick over the last StatsWindow ticks", summary.max / 1000);
+        }
+
+        gauge(out, "tick_average_seconds", "Server's own 100 tick average tick time", averageTickMillis / 1000);
+        gauge(out, "tps", "Ticks per second, by the configured LagMetric", tps);
+        gauge(out, "hanging", "1 while the server is hung on a tick", hanging ? 1 : 0);
+        gauge(out, "lag_seconds", "Seconds TPS has been below LowTPSThreshold", lagSeconds);
+        gauge(out, "mitigation_steps", "Lag mitigation steps currently in effect", mitigationSteps);
+        gauge(out, "threads_spinning", "Watched threads found spinning at the last check", threadsSpinning);
+        gauge(out, "threads_stuck", "Watched threads found stuck in one stack at the last check", threadsStuck);
+        counter(out, "watchdog_checks_total", "Watchdog checks run", watchdogChecks.get());
+        counter(out, "hangs_total", "Times the server was found hung on a tick", hangs.get());
+        counter(out, "lag_spells_total", "Times TPS fell below LowTPSThreshold", lagSpells.get());
+        counter(out, "stalls_total", "Whole JVM stalls longer than StallThreshold", stalls.get());
+        counter(out, "mitigations_total", "Lag mitigation steps applied", mitigations.get());
+        counter(out, "deadlocks_total", "Deadlocks found between threads", deadlocks.get());
+
+        header(out, "kills_total", "counter", "Server kills attempted by the watchdog");
+        sample(out, "kills_total{kind=\"soft\"}", softKills.get());
+        sample(out, "kills_total{kind=\"hard\"}", hardKills.get());
+
+        long next = nextShutdownNanos;
+        if (next != NONE)
+            gauge(out, "next_shutdown_seconds", "Seconds until the next scheduled shutdown begins",
+                Math.max(next - System.nanoTime(), 0L) / (double) TimeUnit.SECONDS.toNanos(1));
+
+        gauge(out, "delay_minutes", "Minutes the shutdown is still delayed by for players", delayMinutes);
+        gauge(out, "warnings_left", "Shutdown warnings still to be given", warningsLeft);
+        gauge(out, "restart_slot_wait_minutes", "Minutes the shutdown has waited for a restart slot", slotWaitMinutes);
+
+        gauge(out, "vote_in_progress", "1 while a shutdown vote is in progress", voting ? 1 : 0);
+        header(out, "votes", "gauge", "Votes cast in the current shutdown vote");
+        sample(out, "votes{vote=\"yes\"}", votesYes);
+        sample(out, "votes{vote=\"no\"}", votesNo);
+        counter(out, "votes_started_total", "Shutdown votes started", votesStarted.get());
+        counter(out, "votes_passed_total", "Shutdown votes passed", votesPassed.get());
+        counter(out, "votes_failed_total", "Shutdown votes failed", votesFailed.get());
+        counter(out, "logins_refused_total", "Logins turned away by admission control", loginsRefused.get());
+
+        header(out, "stage_seconds", "gauge", "Wall time of each stage of the last graceful shutdown");
+        for (ShutdownPipeline.Stage stage : ShutdownPipeline.Stage.values())
+            sample(out, "stage_seconds{stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"}",
+                stageMillis.get(stage.ordinal()) / 1000.0);
+
+        header(out, "stage_timeouts_total", "counter", "Graceful shutdown stages that went over their time limit");
+        for (ShutdownPipeline.Stage stage : ShutdownPipeline.Stage.values())
+            sample(out, "stage_timeouts_total{stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"}",
+                stageTimeouts.get(stage.ordinal()));
+
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value)
+    {
+        header(out, name, "gauge", help);
+        sample(out, name, value);
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value)
+    {
+        header(out, name, "counter", help);
+        sample(out, name, value);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help)
+    {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, double value)
+    {
+        out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, long value)
+    {
+        out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private Metrics() { }
+}
@@ -0,0 +1,105 @@
+package com.targren.forgeautoshutdown;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Singleton that serves {@link Metrics} over HTTP at `/metrics`, in the Prometheus text
+ * format, using the JDK's built-in HTTP server on a single daemon thread of its own.
+ */
+public class MetricsServer
+{
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static MetricsServer INSTANCE;
+
+    /** Starts the endpoint on the configured address and port */
+    public static void create()
+    {
+        if (INSTANCE != null)
+            throw new RuntimeException("MetricsServer can only be created once");
+
+        Logger logger = ForgeAutoShutdown.LOGGER;
+        InetSocketAddress address = new InetSocketAddress(Config.metricsAddress.get(), Config.metricsPort.get());
+
+        try
+        {
+            INSTANCE = new MetricsServer(HttpServer.create(address, 0));
+            logger.info("Serving metrics at http://{}:{}/metrics", address.getHostString(), address.getPort());
+        }
+        catch (IOException e)
+        {
+            logger.error("Could not start metrics endpoint on {}", address, e);
+        }
+    }
+
+    /** Stops the endpoint and its thread as the server stops */
+    static void onServerStopping(ServerStoppingEvent event)
+    {
+        if (INSTANCE == null)
+            return;
+
+        INSTANCE.http.stop(0);
+        INSTANCE.executor.shutdown();
+        INSTANCE = null;
+    }
+
+    private final HttpServer http;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(task ->
+    {
+        Thread thread = new Thread(task, "ForgeAutoShutdown metrics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private MetricsServer(HttpServer http)
+    {
+        this.http = http;
+
+        http.setExecutor(executor);
+
+        http.createContext("/metrics", this::handle);
+        http.start();
+    }
+
+    /** Runs from the metrics thread */
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try (exchange)
+        {
+            String method = exchange.getRequestMethod();
+
+            if (!method.equals("GET") && !method.equals("HEAD"))
+            {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+
+            if (method.equals("HEAD"))
+            {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            byte[] body = Metrics.render().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.GroupWalk;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ChunkHolder;
+import net.minecraft.server.level.ChunkMap;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.players.PlayerList;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.util.ObfuscationReflectionHelper;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton that saves the world a little at a time during the shutdown warnings, so that
+ * the final save only has to write what changed since the last pass.
+ *
+ * Each pass saves every player, then every unsaved chunk of every level, one at a time. At
+ * the end of each tick, it saves for as long as the per-tick budget allows, and never past
+ * the 50 ms a tick is meant to take; the clock is checked after every player and chunk, so
+ * a tick is only ever pushed over by a single one of those. A level's chunks are copied into
+ * a list when the pass reaches it, and walked from there; levels with no chunks loaded are
+ * passed over. The tick handler is only
+ * registered while a pass is in progress.
+ */
+class PreSaveTask
+{
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    /** ChunkMap.save(ChunkAccess) and PlayerList.save(ServerPlayer), which are not public */
+    private static final Method SAVE_CHUNK = find(ChunkMap.class, "m_140258_", ChunkAccess.class);
+    private static final Method SAVE_PLAYER = find(PlayerList.class, "m_6765_", ServerPlayer.class);
+
+    private static PreSaveTask INSTANCE;
+
+    /** Queues a fresh pass over players and levels; runs from the main server thread */
+    static void beginPass(MinecraftServer server)
+    {
+        if (!Config.get().preSave)
+            return;
+
+        if (INSTANCE == null)
+            INSTANCE = new PreSaveTask(server);
+
+        INSTANCE.queuePass();
+    }
+
+    /** Drops any pass in progress once the server has stopped */
+    static void destroy()
+    {
+        if (INSTANCE != null && INSTANCE.registered)
+            MinecraftForge.EVENT_BUS.unregister(INSTANCE);
+
+        INSTANCE = null;
+    }
+
+    private final Logger logger = ForgeAutoShutdown.LOGGER;
+    private final Deque<UUID> players = new ArrayDeque<>();
+    private final GroupWalk<ServerLevel, ChunkHolder> chunks = new GroupWalk<>(PreSaveTask::listChunks);
+    private final MinecraftServer server;
+
+    private int saved = 0;
+
+    private boolean registered = false;
+    private long passStart = 0L;
+
+    private PreSaveTask(MinecraftServer server)
+    {
+        this.server = server;
+    }
+
+    private static Method find(Class<?> owner, String name, Class<?>... parameters)
+    {
+        try
+        {
+            return ObfuscationReflectionHelper.findMethod(owner, name, parameters);
+        }
+        catch (RuntimeException e)
+        {
+            ForgeAutoShutdown.LOGGER.warn("Could not find {}.{}; pre-saving will leave it to the final save",
+                owner.getSimpleName(), name, e);
+            return null;
+        }
+    }
+
+    /** Copies a level's chunk holders, as ChunkMap.getChunks returns a live view */
+    private static List<ChunkHolder> listChunks(ServerLevel level)
+    {
+        List<ChunkHolder> holders = new ArrayList<>();
+
+        try
+        {
+            for (Object holder : (Iterable<?>) WorldCensus.GET_CHUNKS.invoke(level.getChunkSource().chunkMap))
+                holders.add((ChunkHolder) holder);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Could not list chunks of " + level.dimension().location(), e);
+        }
+
+        return holders;
+    }
+
+    private void queuePass()
+    {
+        if (!isDone())
+            logger.debug("Pre-save pass did not finish in time; starting over");
+
+        players.clear();
+        chunks.clear();
+        saved = 0;
+
+        if (SAVE_PLAYER != null)
+        {
+            for (ServerPlayer player : server.getPlayerList().getPlayers())
+                players.add(player.getUUID());
+        }
+
+        if (SAVE_CHUNK != null && WorldCensus.GET_CHUNKS != null)
+        {
+            for (ServerLevel level : server.getAllLevels())
+            {
+                if (!level.noSave)
+                    chunks.add(level);
+            }
+        }
+
+        passStart = System.nanoTime();
+
+        if (!registered)
+        {
+            MinecraftForge.EVENT_BUS.register(this);
+            registered = true;
+        }
+    }
+
+    /** Runs from the main server thread */
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if (event.phase != TickEvent.Phase.END)
+            return;
+
+        long deadline = Math.min(
+            System.nanoTime() + Config.get().preSaveBudgetNanos,
+            TickMonitor.getTickStart() + TICK_NANOS
+        );
+
+        try
+        {
+            while (!isDone() && System.nanoTime() < deadline)
+                saveNext();
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            logger.warn("Pre-save failed; leaving the rest to the final save", e);
+            players.clear();
+            chunks.clear();
+        }
+
+        if (isDone())
+        {
+            logger.debug(
+                "Pre-save pass saved {} players and chunks in {} ms",
+                saved,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - passStart)
+            );
+            MinecraftForge.EVENT_BUS.unregister(this);
+            registered = false;
+        }
+    }
+
+    private boolean isDone()
+    {
+        return players.isEmpty() && chunks.isDone();
+    }
+
+    /** Saves one player or chunk */
+    private void saveNext() throws ReflectiveOperationException
+    {
+        if (!players.isEmpty())
+        {
+            PlayerList list = server.getPlayerList();
+            ServerPlayer player = list.getPlayer(players.poll());
+
+            if (player != null)
+            {
+                SAVE_PLAYER.invoke(list, player);
+                saved++;
+            }
+
+            return;
+        }
+
+        ChunkHolder holder = chunks.next();
+
+        if (holder == null)
+            return;
+
+        ChunkAccess chunk = holder.getChunkToSave().getNow(null);
+        ChunkMap map = chunks.getGroup().getChunkSource().chunkMap;
+
+        if (chunk != null && chunk.isUnsaved() && (boolean) SAVE_CHUNK.invoke(map, chunk))
+            saved++;
+    }
+}
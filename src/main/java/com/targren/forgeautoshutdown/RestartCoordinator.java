@@ -0,0 +1,131 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.RestartSlots;
+import net.minecraftforge.event.server.ServerAboutToStartEvent;
+import net.minecraftforge.event.server.ServerStartedEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Static handler that queues this instance's restarts behind those of other instances on the
+ * same host, through {@link RestartSlots} in the shared CoordinationDir.
+ *
+ * A slot is held from the first shutdown warning until the server has stopped, and again
+ * from before the world loads until the server has started, so that only CoordinationSlots
+ * instances save or cold start at once. A shutdown delayed for players or called off gives
+ * its slot back, and takes one again when it next goes ahead. A scheduled shutdown that
+ * finds no free slot moves back a minute at a time; a start that finds none waits. Neither
+ * waits longer than CoordinationMaxWait minutes.
+ */
+class RestartCoordinator
+{
+    private static final Logger LOGGER = ForgeAutoShutdown.LOGGER;
+
+    private static volatile RestartSlots SLOTS;
+
+    /**
+     * Waits for a slot before the world is loaded; runs from the main server thread, which
+     * has nothing else to do yet
+     */
+    static void onServerAboutToStart(ServerAboutToStartEvent event)
+    {
+        String directory = Config.coordinationDir.get().trim();
+
+        if (directory.isEmpty())
+            return;
+
+        SLOTS = new RestartSlots(Paths.get(directory), Config.coordinationSlots.get());
+
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.MINUTES.toNanos(Config.coordinationMaxWait.get());
+        boolean logged = false;
+
+        while (!tryAcquire())
+        {
+            if (System.nanoTime() - deadline >= 0)
+            {
+                LOGGER.warn("No restart slot free after {} minutes; starting anyway", Config.coordinationMaxWait.get());
+                return;
+            }
+
+            if (!logged)
+            {
+                LOGGER.info("Waiting for one of {} restart slots before loading the world", SLOTS.getSlots());
+                logged = true;
+            }
+
+            try
+            {
+                Thread.sleep(1000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        LOGGER.info(
+            "Took restart slot {} after {} seconds",
+            SLOTS.getSlot(),
+            TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - begin)
+        );
+    }
+
+    static void onServerStarted(ServerStartedEvent event)
+    {
+        release();
+    }
+
+    static void onServerStopped(ServerStoppedEvent event)
+    {
+        release();
+    }
+
+    /**
+     * Takes a free slot, unless this instance already holds one. Safe to call from any thread.
+     * @return Whether this instance may go ahead; always true if coordination is off
+     */
+    static boolean tryAcquire()
+    {
+        RestartSlots slots = SLOTS;
+
+        if (slots == null)
+            return true;
+
+        try
+        {
+            return slots.tryAcquire();
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Could not take a restart slot; going ahead without one", e);
+            return true;
+        }
+    }
+
+    /** Gives up this instance's slot, if it holds one. Safe to call from any thread. */
+    static void release()
+    {
+        RestartSlots slots = SLOTS;
+
+        if (slots == null || slots.getSlot() < 0)
+            return;
+
+        try
+        {
+            LOGGER.debug("Releasing restart slot {}", slots.getSlot());
+            slots.release();
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Could not release restart slot", e);
+        }
+    }
+
+    private RestartCoordinator() { }
+}
@@ -0,0 +1,63 @@
+package com.targren.forgeautoshutdown;
+
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.level.ChunkDataEvent;
+import net.minecraftforge.event.level.LevelEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Static handler that notes when the server last made progress towards saving, so that the
+ * watchdog can tell a save that is slow from one that is stuck.
+ *
+ * Every chunk, player and level written counts, as do the server beginning to stop and each
+ * stage of the graceful shutdown. Each only costs a volatile write, so it is left registered
+ * for autosaves too.
+ */
+class SaveProgress
+{
+    private static volatile long lastProgress = System.nanoTime();
+    private static final AtomicLong steps = new AtomicLong();
+
+    /** Notes progress; safe to call from any thread */
+    static void beat()
+    {
+        lastProgress = System.nanoTime();
+        steps.incrementAndGet();
+    }
+
+    /** Gets when progress was last made, as per {@link System#nanoTime()} */
+    static long getLastProgress()
+    {
+        return lastProgress;
+    }
+
+    /** Gets how many chunks, players, levels and shutdown stages have been saved or run */
+    static long getSteps()
+    {
+        return steps.get();
+    }
+
+    static void onChunkSave(ChunkDataEvent.Save event)
+    {
+        beat();
+    }
+
+    static void onPlayerSave(PlayerEvent.SaveToFile event)
+    {
+        beat();
+    }
+
+    static void onLevelSave(LevelEvent.Save event)
+    {
+        beat();
+    }
+
+    static void onServerStopping(ServerStoppingEvent event)
+    {
+        beat();
+    }
+
+    private SaveProgress() { }
+}
@@ -0,0 +1,124 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.FlightLog;
+import net.minecraft.server.MinecraftServer;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton that runs all of the mod's timed work on a single background thread.
+ *
+ * Delays are measured on the monotonic clock ({@link System#nanoTime()}), so stepping the
+ * wall clock does not move anything already scheduled. Pending work is kept in the
+ * executor's heap, ordered by deadline, so nothing runs or polls until something is due.
+ * Work that must run on the main server thread is handed over through the server's own task
+ * queue, rather than a flag checked every tick.
+ */
+public class Scheduler
+{
+    private static Scheduler INSTANCE;
+
+    /** Creates the scheduler and its thread */
+    public static void create(MinecraftServer server)
+    {
+        if (INSTANCE != null)
+            throw new RuntimeException("Scheduler can only be created once");
+
+        INSTANCE = new Scheduler(server);
+    }
+
+    public static Scheduler get()
+    {
+        return INSTANCE;
+    }
+
+    /** Stops the scheduler thread, dropping any work still pending, once the server has stopped */
+    static void destroy()
+    {
+        if (INSTANCE == null)
+            return;
+
+        INSTANCE.executor.shutdownNow();
+        INSTANCE = null;
+    }
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final MinecraftServer server;
+
+    private Scheduler(MinecraftServer server)
+    {
+        this.server = server;
+        this.executor = new ScheduledThreadPoolExecutor(1, task ->
+        {
+            Thread thread = new Thread(task, "ForgeAutoShutdown scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /** For schedulers that run work on a virtual clock instead, in the simulation harness */
+    Scheduler()
+    {
+        this.server = null;
+        this.executor = null;
+    }
+
+    /** Runs a task once on the scheduler thread, after the given delay */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit)
+    {
+        return executor.schedule(guard(task), delay, unit);
+    }
+
+    /** Runs a task repeatedly on the scheduler thread, at a fixed rate */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long delay, long period, TimeUnit unit)
+    {
+        return executor.scheduleAtFixedRate(guard(task), delay, period, unit);
+    }
+
+    /** Hands a task over to the main server thread's task queue */
+    public void runOnMain(Runnable task)
+    {
+        server.execute(guard(task));
+    }
+
+    /**
+     * Logs instead of rethrowing, as a periodic task that throws is never run again. Each run
+     * is also timed for the flight log and recording, if either is running.
+     */
+    private static Runnable guard(Runnable task)
+    {
+        return () ->
+        {
+            FlightRecorder.ScheduledTaskEvent event = null;
+
+            if (FlightRecorder.isActive())
+            {
+                event = new FlightRecorder.ScheduledTaskEvent();
+                event.begin();
+            }
+
+            long begin = System.nanoTime();
+
+            try
+            {
+                task.run();
+            }
+            catch (RuntimeException e)
+            {
+                ForgeAutoShutdown.LOGGER.error("Scheduled task failed", e);
+            }
+
+            FlightLogWriter.record(FlightLog.Kind.TASK, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+
+            if (event != null && event.shouldCommit())
+            {
+                event.task = task.getClass().getName();
+                event.commit();
+            }
+        };
+    }
+}
@@ -0,0 +1,77 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.Server;
+import com.targren.forgeautoshutdown.util.TickStats;
+import net.minecraft.server.MinecraftServer;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * What the watchdog reads of the server and the JVM it runs in, so that its decisions can be
+ * replayed against a simulated server instead of a live one
+ */
+public interface ServerProbe
+{
+    /** Gets when the server last finished a tick, as per {@link System#nanoTime()}, or 0 if never */
+    long getHeartbeat();
+
+    /** Gets the server's own 100 tick average tick time, in milliseconds */
+    double getAverageTickTime();
+
+    /** Summarizes tick times over the last StatsWindow ticks */
+    TickStats.Summary getTickSummary();
+
+    /** Checks if any non-fake player is online */
+    boolean hasRealPlayers();
+
+    /** Gets the total time spent in stop-the-world collections since the JVM started */
+    long getGcPauseMillis();
+
+    /** Probes a live server */
+    static ServerProbe of(MinecraftServer server)
+    {
+        return new ServerProbe()
+        {
+            @Override
+            public long getHeartbeat()
+            {
+                return TickMonitor.getHeartbeat();
+            }
+
+            @Override
+            public double getAverageTickTime()
+            {
+                return server.getAverageTickTime();
+            }
+
+            @Override
+            public TickStats.Summary getTickSummary()
+            {
+                // Null once the server has stopped, should a check still be in flight
+                TickStats stats = TickMonitor.getStats();
+                return stats == null ? TickStats.Summary.EMPTY : stats.summarize();
+            }
+
+            @Override
+            public boolean hasRealPlayers()
+            {
+                return Server.hasRealPlayers(server);
+            }
+
+            @Override
+            public long getGcPauseMillis()
+            {
+                long total = 0L;
+
+                for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+                {
+                    if (MemoryMonitor.isPausing(collector.getName()))
+                        total += Math.max(collector.getCollectionTime(), 0L);
+                }
+
+                return total;
+            }
+        };
+    }
+}
@@ -5,20 +5,28 @@ import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
 import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
 import com.targren.forgeautoshutdown.util.Chat;
-import com.targren.forgeautoshutdown.util.Server;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.common.util.FakePlayer;
+import net.minecraftforge.event.entity.player.PlayerEvent;
 import org.apache.logging.log4j.Logger;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Singleton that handles the `/shutdown` voting command
+ * Singleton that handles the `/shutdown` voting command.
+ *
+ * The tally is kept as live yes and no counters, along with the amount of real players who
+ * may vote. Each is updated as votes are cast and players log in or out, so checking the
+ * outcome never walks the votes or the player list. Fake players can neither vote nor count
+ * towards the players needed. A vote that has not ended by itself fails after VoteTimeout.
  */
 public class ShutdownCommand
 {
@@ -43,11 +51,16 @@ public class ShutdownCommand
     private long lastVoteMillis = 0L;
     private boolean voting = false;
 
+    private int yes = 0;
+    private int no = 0;
+    private int voters = 0;
+    private ScheduledFuture<?> timeout;
+
     /** Registers the `/shutdown` command for use */
     public static void register(CommandDispatcher<CommandSourceStack> dispatcher)
     {
         dispatcher.register(Commands.literal("shutdown")
-            .requires(source -> Config.voteEnabled.get())
+            .requires(source -> Config.get().voteEnabled)
             .executes(context -> INSTANCE.initiateVote(context.getSource()))
             .then(Commands.literal("yes")
                 .executes(context -> INSTANCE.processVote(context.getSource(), true))
@@ -60,6 +73,32 @@ public class ShutdownCommand
         ForgeAutoShutdown.LOGGER.debug("`/shutdown` command registered");
     }
 
+    /** Ends any vote still in progress once the server has stopped; runs from the main server thread */
+    static void reset()
+    {
+        if (INSTANCE.voting)
+            INSTANCE.endVote();
+    }
+
+    /** Runs from the main server thread */
+    static void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event)
+    {
+        if (INSTANCE.voting && isRealPlayer(event.getEntity()))
+            INSTANCE.voters++;
+    }
+
+    /** Runs from the main server thread; drops the player's vote and rechecks the outcome */
+    static void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event)
+    {
+        if (!INSTANCE.voting || !isRealPlayer(event.getEntity()))
+            return;
+
+        ServerPlayer player = (ServerPlayer) event.getEntity();
+        INSTANCE.voters--;
+        INSTANCE.uncount(INSTANCE.votes.remove(player.getUUID()));
+        INSTANCE.checkVotes(player.getServer());
+    }
+
     private ShutdownCommand() { }
 
     private int initiateVote(CommandSourceStack source) throws CommandSyntaxException
@@ -70,21 +109,33 @@ public class ShutdownCommand
         if (voting)
             throw VOTE_IN_PROGRESS.create();
 
+        ConfigSnapshot config = Config.get();
         long now = System.currentTimeMillis();
-        long interval = (long) Config.voteInterval.get() * 60 * 1000;
+        long interval = config.voteIntervalMillis;
         long difference = now - lastVoteMillis;
 
         if (difference < interval)
             throw TOO_SOON.create((interval - difference) / 1000);
 
         MinecraftServer server = source.getServer();
-        int players = server.getPlayerList().getPlayers().size();
+        int players = countRealPlayers(server);
 
-        if (players < Config.minVoters.get())
-            throw NOT_ENOUGH_PLAYERS.create(Config.minVoters.get());
+        if (players < config.minVoters)
+            throw NOT_ENOUGH_PLAYERS.create(config.minVoters);
 
         votes.clear();
         voting = true;
+        yes = 0;
+        no = 0;
+        voters = players;
+        Metrics.votesStarted.incrementAndGet();
+        Metrics.setVotes(true, 0, 0);
+
+        timeout = Scheduler.get().schedule(
+            () -> Scheduler.get().runOnMain(() -> onTimeout(server)),
+            config.voteTimeout,
+            TimeUnit.MINUTES
+        );
 
         Chat.toAll(server, "forgeautoshutdown.msg.votebegun");
         logger.info("ForgeAutoShutdown: {} called for a shutdown vote", player.getScoreboardName());
@@ -99,12 +150,19 @@ public class ShutdownCommand
         if (!voting)
             throw NO_VOTE_IN_PROGRESS.create();
 
-        UUID id = player.getUUID();
+        Boolean previous = votes.put(player.getUUID(), vote);
 
-        if (votes.containsKey(id))
+        if (previous != null)
+        {
+            uncount(previous);
             Chat.to(source, "forgeautoshutdown.msg.votecleared");
+        }
+
+        if (vote)
+            yes++;
+        else
+            no++;
 
-        votes.put(id, vote);
         Chat.to(source, "forgeautoshutdown.msg.voterecorded");
 
         logger.info("ForgeAutoShutdown: {} voted {}", player.getScoreboardName(), vote ? "yes" : "no");
@@ -112,56 +170,104 @@ public class ShutdownCommand
         return 1;
     }
 
+    /** Takes a vote that was removed out of the counters */
+    private void uncount(Boolean vote)
+    {
+        if (vote == null)
+            return;
+
+        if (vote)
+            yes--;
+        else
+            no--;
+    }
+
     private void checkVotes(MinecraftServer server)
     {
-        int players = server.getPlayerList().getPlayers().size();
+        if (!voting)
+            return;
+
+        ConfigSnapshot config = Config.get();
 
-        if (players < Config.minVoters.get())
+        if (voters < config.minVoters)
         {
             voteFailure(server, "forgeautoshutdown.fail.notenoughplayers");
             return;
         }
 
-        int yes = 0;
-        int no = 0;
-        for (boolean vote : votes.values())
-        {
-            if (vote)
-                yes++;
-            else
-                no++;
-        }
+        Metrics.setVotes(true, yes, no);
 
-        if (no >= Config.maxNoVotes.get())
+        if (no >= config.maxNoVotes)
         {
             voteFailure(server, "forgeautoshutdown.fail.maxnovotes");
             return;
         }
 
-        if (yes + no == players)
+        if (yes + no >= voters)
             voteSuccess(server);
     }
 
+    /** Runs from the main server thread */
+    private void onTimeout(MinecraftServer server)
+    {
+        if (!voting)
+            return;
+
+        ForgeAutoShutdown.LOGGER.info("Shutdown vote timed out with {} yes and {} no of {} players", yes, no, voters);
+        voteFailure(server, "forgeautoshutdown.fail.timeout");
+    }
+
     private void voteSuccess(MinecraftServer server)
     {
         ForgeAutoShutdown.LOGGER.info("Server shutdown initiated by vote");
-        Server.shutdown(server, Component.translatable("forgeautoshutdown.msg.usershutdown"));
+        Metrics.votesPassed.incrementAndGet();
+        endVote();
+        ShutdownPipeline.start(server, Component.translatable("forgeautoshutdown.msg.usershutdown"));
     }
 
     private void voteFailure(MinecraftServer server, String reason)
     {
         Chat.toAll(server, reason);
-        votes.clear();
-
         lastVoteMillis = System.currentTimeMillis();
+        Metrics.votesFailed.incrementAndGet();
+        endVote();
+    }
+
+    private void endVote()
+    {
+        if (timeout != null)
+            timeout.cancel(false);
+
+        votes.clear();
         voting = false;
+        timeout = null;
+        Metrics.setVotes(false, 0, 0);
     }
 
     private static ServerPlayer getPlayer(CommandSourceStack source) throws CommandSyntaxException
     {
-        if (source.getEntity() instanceof ServerPlayer player)
-            return player;
+        if (isRealPlayer(source.getEntity()))
+            return (ServerPlayer) source.getEntity();
 
         throw PLAYERS_ONLY.create();
     }
+
+    private static boolean isRealPlayer(Object entity)
+    {
+        return entity instanceof ServerPlayer && !(entity instanceof FakePlayer);
+    }
+
+    /** Walks the player list once, as a vote begins; from then on logins and logouts are counted */
+    private static int countRealPlayers(MinecraftServer server)
+    {
+        int count = 0;
+
+        for (ServerPlayer player : server.getPlayerList().getPlayers())
+        {
+            if (!(player instanceof FakePlayer))
+                count++;
+        }
+
+        return count;
+    }
 }
@@ -0,0 +1,233 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.FlightLog;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.network.ServerConnectionListener;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.ToIntFunction;
+
+/**
+ * Runs a graceful shutdown as a series of timed stages.
+ *
+ * The pipeline itself runs on its own thread, handing each stage's work to the main server
+ * thread and waiting for it up to the stage's configured time limit. A stage that goes over
+ * its limit still holds the main thread, which every later stage would queue behind, so its
+ * work is cancelled if it has not begun, the remaining stages are skipped and the server is
+ * halted right away. Should the main thread stay stuck, the watchdog sees no save progress
+ * and kills the server as per AttemptSoftKill.
+ * Every stage's wall time is logged, so the parts of a restart's downtime can be told apart.
+ */
+public class ShutdownPipeline
+{
+    /** Stages of a graceful shutdown, in the order they run before the server is halted */
+    public enum Stage
+    {
+        LOGIN_GATE(config -> config.loginGateTimeout),
+        DRAIN(config -> config.drainTimeout),
+        SAVE_PLAYERS(config -> config.savePlayersTimeout),
+        SAVE_LEVELS(config -> config.saveLevelsTimeout);
+
+        private final ToIntFunction<ConfigSnapshot> timeout;
+
+        Stage(ToIntFunction<ConfigSnapshot> timeout)
+        {
+            this.timeout = timeout;
+        }
+
+        /** Gets this stage's time limit in the given config, in seconds */
+        int getTimeout(ConfigSnapshot config)
+        {
+            return timeout.applyAsInt(config);
+        }
+    }
+
+    private static final Logger LOGGER = ForgeAutoShutdown.LOGGER;
+
+    private static ShutdownPipeline INSTANCE;
+
+    /**
+     * Begins a graceful shutdown, unless one is already in progress
+     * @param server Server instance to shut down
+     * @param reason Reason to kick players and turn away logins with
+     */
+    public static synchronized void start(MinecraftServer server, Component reason)
+    {
+        if (server == null || INSTANCE != null)
+            return;
+
+        LOGGER.info("Shutdown initiated because: {}", reason.getString());
+        INSTANCE = new ShutdownPipeline(server, reason);
+
+        Thread thread = new Thread(INSTANCE::run, "ForgeAutoShutdown shutdown");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Checks if a graceful shutdown has begun */
+    public static boolean isRunning()
+    {
+        return INSTANCE != null;
+    }
+
+    /** Logs the total time taken, once the server has fully stopped */
+    static void onServerStopped(ServerStoppedEvent event)
+    {
+        if (INSTANCE == null)
+            return;
+
+        long now = System.nanoTime();
+        LOGGER.info(
+            "Server stopped {} ms after being halted, {} ms after shutdown began",
+            TimeUnit.NANOSECONDS.toMillis(now - INSTANCE.stopAt),
+            TimeUnit.NANOSECONDS.toMillis(now - INSTANCE.startAt)
+        );
+    }
+
+    /** Allows the next server started in this JVM its own graceful shutdown */
+    static synchronized void destroy()
+    {
+        INSTANCE = null;
+    }
+
+    private final MinecraftServer server;
+    private final Component reason;
+
+    private long startAt = 0L;
+    private long stopAt = 0L;
+
+    private ShutdownPipeline(MinecraftServer server, Component reason)
+    {
+        this.server = server;
+        this.reason = reason;
+    }
+
+    /** Runs from the shutdown thread */
+    private void run()
+    {
+        startAt = System.nanoTime();
+
+        boolean done = runStage(Stage.LOGIN_GATE, this::closeLoginGate)
+            && runStage(Stage.DRAIN, this::drain)
+            && runStage(Stage.SAVE_PLAYERS, server.getPlayerList()::saveAll)
+            && runStage(Stage.SAVE_LEVELS, () -> server.saveAllChunks(false, true, true));
+
+        if (!done)
+            LOGGER.warn("Skipping the remaining shutdown stages; halting the server now");
+
+        stopAt = System.nanoTime();
+        server.halt(false);
+        LOGGER.info(
+            "Shutdown stages took {} ms in total; stopping server",
+            TimeUnit.NANOSECONDS.toMillis(stopAt - startAt)
+        );
+    }
+
+    /**
+     * Hands a stage's work to the main thread, then waits for it within the time limit
+     * @return False if the stage stalled past its limit, so the main thread is still busy
+     */
+    private boolean runStage(Stage stage, Runnable work)
+    {
+        boolean done = true;
+        long begin = System.nanoTime();
+        int timeout = stage.getTimeout(Config.get());
+
+        FlightRecorder.ShutdownStageEvent event = null;
+
+        if (FlightRecorder.isActive())
+        {
+            event = new FlightRecorder.ShutdownStageEvent();
+            event.begin();
+            event.stage = stage.name();
+            event.timeout = timeout;
+        }
+
+        LOGGER.debug("Shutdown stage {} starting; time limit {} seconds", stage, timeout);
+
+        CompletableFuture<Void> future = server.submit(work);
+
+        try
+        {
+            if (stage == Stage.DRAIN)
+            {
+                future.get(timeout, TimeUnit.SECONDS);
+                awaitDrain(begin + TimeUnit.SECONDS.toNanos(timeout));
+            }
+            else
+                future.get(timeout, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            LOGGER.warn("Shutdown stage {} stalled past {} seconds; escalating", stage, timeout);
+            Metrics.stageTimeouts.incrementAndGet(stage.ordinal());
+            // Drain can time out waiting on players after its work is done, leaving the main thread free
+            if (!future.isDone())
+            {
+                // Keeps the work from running after the halt, if it is still queued behind something else
+                future.cancel(false);
+                done = false;
+            }
+
+            if (event != null)
+                event.timedOut = true;
+        }
+        catch (ExecutionException e)
+        {
+            LOGGER.error("Shutdown stage {} failed; escalating", stage, e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Shutdown stage {} interrupted; escalating", stage);
+        }
+
+        if (event != null)
+            event.commit();
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        Metrics.stageMillis.set(stage.ordinal(), millis);
+        FlightLogWriter.record(FlightLog.Kind.SHUTDOWN_STAGE, stage.ordinal());
+        SaveProgress.beat();
+        LOGGER.info("Shutdown stage {} took {} ms", stage, millis);
+        return done;
+    }
+
+    /** Runs from the main server thread; notes where players are before they are kicked */
+    private void closeLoginGate()
+    {
+        LoginGate.close(reason);
+        ChunkPreloader.writeManifest(server);
+
+        ServerConnectionListener connection = server.getConnection();
+        if (connection != null)
+            connection.stop();
+    }
+
+    /** Runs from the main server thread */
+    private void drain()
+    {
+        for (ServerPlayer player : new ArrayList<>(server.getPlayerList().getPlayers()))
+            player.connection.disconnect(reason);
+    }
+
+    /** Waits for disconnected players to be removed by the main thread */
+    private void awaitDrain(long deadline) throws TimeoutException, InterruptedException
+    {
+        while (server.getPlayerCount() > 0)
+        {
+            if (System.nanoTime() >= deadline)
+                throw new TimeoutException();
+
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.Clock;
+import com.targren.forgeautoshutdown.util.LoadHistory;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Queue of configured shutdown times, ordered by when each is next due.
+ *
+ * Wall clock entries are resolved with java.time in the machine's time zone, so daylight
+ * saving changes are accounted for, and are then turned into a deadline on the monotonic
+ * clock. Once queued, a deadline is no longer affected by the wall clock being stepped.
+ *
+ * Window entries pick the quarter hour within their window where the {@link LoadHistory}
+ * says load has been lowest, falling back to the window's start until there is enough
+ * history to go by.
+ */
+class ShutdownSchedule
+{
+    static final Pattern SPEC = Pattern.compile(
+        "\\s*(daily|weekly\\s+(mon|tue|wed|thu|fri|sat|sun)|uptime|window)\\s+" +
+        "(\\d{1,3}):(\\d{2})(?:\\s*-\\s*(\\d{1,2}):(\\d{2}))?\\s*",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    /** Samples a quarter hour needs before a window entry trusts its history */
+    private static final int MIN_SAMPLES = 4;
+
+    enum Kind
+    {
+        DAILY,
+        WEEKLY,
+        UPTIME,
+        WINDOW
+    }
+
+    /**
+     * A single configured shutdown time, e.g. "daily 05:00", "weekly sun 04:30",
+     * "uptime 24:00" or "window 02:00-07:00"
+     */
+    static class Entry
+    {
+        final Kind kind;
+        final DayOfWeek day;
+        final int hour;
+        final int minute;
+        final int endHour;
+        final int endMinute;
+
+        /** When this entry is next due, as per {@link System#nanoTime()} */
+        long deadline = 0L;
+        /** When this entry is next due, on the wall clock; for logging only */
+        ZonedDateTime due = null;
+        /** Why a window entry picked its time; for logging only */
+        String note = null;
+
+        Entry(Kind kind, DayOfWeek day, int hour, int minute)
+        {
+            this(kind, day, hour, minute, 0, 0);
+        }
+
+        Entry(Kind kind, DayOfWeek day, int hour, int minute, int endHour, int endMinute)
+        {
+            this.kind = kind;
+            this.day = day;
+            this.hour = hour;
+            this.minute = minute;
+            this.endHour = endHour;
+            this.endMinute = endMinute;
+        }
+
+        /**
+         * Works out when this entry is next due
+         * @param now Current wall clock time
+         * @param nowNanos Current monotonic time
+         * @param startNanos Monotonic time the server started at, for uptime entries
+         * @param history Load history for window entries, or null if there is none
+         */
+        void resolve(ZonedDateTime now, long nowNanos, long startNanos, LoadHistory history)
+        {
+            if (kind == Kind.UPTIME)
+            {
+                deadline = startNanos + TimeUnit.HOURS.toNanos(hour) + TimeUnit.MINUTES.toNanos(minute);
+                due = now.plusNanos(Math.max(deadline - nowNanos, 0L)).truncatedTo(ChronoUnit.SECONDS);
+                return;
+            }
+
+            if (kind == Kind.WINDOW)
+            {
+                due = pickQuietest(now, history);
+                deadline = nowNanos + Duration.between(now, due).toNanos();
+                return;
+            }
+
+            ZonedDateTime next = now.withHour(hour).withMinute(minute).truncatedTo(ChronoUnit.MINUTES);
+
+            if (kind == Kind.WEEKLY)
+                next = next.with(TemporalAdjusters.nextOrSame(day));
+
+            if (!next.isAfter(now))
+                next = kind == Kind.WEEKLY ? next.plusWeeks(1) : next.plusDays(1);
+
+            due = next;
+            deadline = nowNanos + Duration.between(now, next).toNanos();
+        }
+
+        /** Picks the quietest quarter hour in the soonest window that has not yet ended */
+        private ZonedDateTime pickQuietest(ZonedDateTime now, LoadHistory history)
+        {
+            ZonedDateTime today = now.withHour(hour).withMinute(minute).truncatedTo(ChronoUnit.MINUTES);
+            ZonedDateTime todayEnd = now.withHour(endHour).withMinute(endMinute).truncatedTo(ChronoUnit.MINUTES);
+            Duration length = Duration.between(today, todayEnd);
+
+            // Windows crossing midnight end on the next day
+            if (length.isNegative() || length.isZero())
+                length = length.plusDays(1);
+
+            for (int day = -1; day <= 1; day++)
+            {
+                ZonedDateTime start = today.plusDays(day);
+                ZonedDateTime end = start.plus(length);
+                ZonedDateTime best = null;
+                double bestScore = Double.MAX_VALUE;
+                boolean trusted = history != null;
+
+                for (ZonedDateTime slot = start; slot.isBefore(end); slot = slot.plusMinutes(LoadHistory.SLOT_MINUTES))
+                {
+                    if (!slot.isAfter(now))
+                        continue;
+
+                    int index = LoadHistory.slotOf(slot);
+
+                    if (best == null)
+                        best = slot;
+
+                    if (history == null || history.getSamples(index) < MIN_SAMPLES)
+                    {
+                        trusted = false;
+                        continue;
+                    }
+
+                    double score = history.getScore(index);
+                    if (score < bestScore)
+                    {
+                        best = slot;
+                        bestScore = score;
+                    }
+                }
+
+                if (best == null)
+                    continue;
+
+                if (trusted)
+                {
+                    int index = LoadHistory.slotOf(best);
+                    note = String.format("quietest slot; %.1f players, %.1f TPS on average",
+                        history.getMeanPlayers(index), history.getMeanTps(index));
+                    return best;
+                }
+
+                // Until every slot has enough history, the earliest one is used
+                ZonedDateTime first = start.isAfter(now) ? start : best;
+                note = "not enough load history yet; using the earliest slot";
+                return first;
+            }
+
+            throw new IllegalStateException("No slot found in shutdown window " + this);
+        }
+
+        @Override
+        public String toString()
+        {
+            String time = String.format("%02d:%02d", hour, minute);
+            String detail = note == null ? "" : "; " + note;
+
+            switch (kind)
+            {
+                case WEEKLY: return "weekly " + day.getDisplayName(TextStyle.SHORT, Locale.ROOT) + " " + time;
+                case UPTIME: return "uptime " + time;
+                case WINDOW: return String.format("window %s-%02d:%02d%s", time, endHour, endMinute, detail);
+                default:     return "daily " + time;
+            }
+        }
+    }
+
+    /** Parses a schedule entry; see {@link Entry} for the format */
+    static Entry parse(String spec)
+    {
+        Matcher matcher = SPEC.matcher(spec);
+
+        if (!matcher.matches())
+            throw new IllegalArgumentException("Invalid shutdown schedule: " + spec);
+
+        String kind = matcher.group(1).toLowerCase(Locale.ROOT);
+        int hour = Integer.parseInt(matcher.group(3));
+        int minute = Integer.parseInt(matcher.group(4));
+        boolean window = kind.equals("window");
+
+        if (minute > 59 || (!kind.startsWith("uptime") && hour > 23))
+            throw new IllegalArgumentException("Invalid time in shutdown schedule: " + spec);
+
+        if (window != (matcher.group(5) != null))
+            throw new IllegalArgumentException("Only window entries take an end time: " + spec);
+
+        if (window)
+        {
+            int endHour = Integer.parseInt(matcher.group(5));
+            int endMinute = Integer.parseInt(matcher.group(6));
+
+            if (endHour > 23 || endMinute > 59)
+                throw new IllegalArgumentException("Invalid end time in shutdown schedule: " + spec);
+
+            return new Entry(Kind.WINDOW, null, hour, minute, endHour, endMinute);
+        }
+
+        if (kind.startsWith("weekly"))
+            return new Entry(Kind.WEEKLY, parseDay(matcher.group(2)), hour, minute);
+        else if (kind.startsWith("uptime"))
+            return new Entry(Kind.UPTIME, null, hour, minute);
+        else
+            return new Entry(Kind.DAILY, null, hour, minute);
+    }
+
+    private static DayOfWeek parseDay(String day)
+    {
+        for (DayOfWeek value : DayOfWeek.values())
+        {
+            if (value.name().regionMatches(true, 0, day, 0, 3))
+                return value;
+        }
+
+        throw new IllegalArgumentException("Invalid day of week: " + day);
+    }
+
+    private final PriorityQueue<Entry> queue =
+        new PriorityQueue<>((a, b) -> Long.signum(a.deadline - b.deadline));
+
+    private final Clock clock;
+    private final long startNanos;
+    private final LoadHistory history;
+
+    /**
+     * @param clock Clock to resolve entries by
+     * @param startNanos Monotonic time the server started at, for uptime entries
+     * @param history Load history for window entries, or null if there is none
+     */
+    ShutdownSchedule(Clock clock, long startNanos, LoadHistory history)
+    {
+        this.clock = clock;
+        this.startNanos = startNanos;
+        this.history = history;
+    }
+
+    /** Resolves an entry's next due time and queues it */
+    void add(Entry entry)
+    {
+        entry.resolve(clock.now(), clock.nanoTime(), startNanos, history);
+        queue.add(entry);
+    }
+
+    /** Gets the entry due soonest, or null if nothing is scheduled */
+    Entry peek()
+    {
+        return queue.peek();
+    }
+
+    boolean isEmpty()
+    {
+        return queue.isEmpty();
+    }
+}
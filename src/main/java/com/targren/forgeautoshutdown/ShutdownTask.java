@@ -1,141 +1,359 @@
 package com.targren.forgeautoshutdown;
 
 import com.targren.forgeautoshutdown.util.Chat;
-import com.targren.forgeautoshutdown.util.Server;
+import com.targren.forgeautoshutdown.util.Clock;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
-import net.minecraftforge.common.MinecraftForge;
-import net.minecraftforge.event.TickEvent;
-import net.minecraftforge.eventbus.api.EventPriority;
-import net.minecraftforge.eventbus.api.SubscribeEvent;
 import org.apache.logging.log4j.Logger;
 
-import java.text.Format;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Singleton that acts as a timer task and an event handler for daily shutdown.
+ * Singleton that handles scheduled shutdowns.
  *
- * The use of a tick handler ensures the shutdown process is run in the main thread,
- * to prevent issues with cross-thread contamination. As the handler runs 20 times a
- * second, the event is just a boolean check. This means the scheduled task's role is
- * to unlock the tick handler.
+ * The configured schedule is kept in a {@link ShutdownSchedule}, and only its soonest entry
+ * is handed to the {@link Scheduler}. Once that is due, the shutdown process is run once a
+ * minute on the main server thread, to prevent issues with cross-thread contamination. No
+ * tick handler is involved, so there is no per-tick cost while waiting.
+ *
+ * Every decision is made from a {@link Clock}, a {@link Scheduler} and a {@link ServerProbe},
+ * and warnings and the shutdown itself go through {@link Actions}, so that the simulation
+ * harness can replay schedules, delays and warnings on a virtual clock.
  */
-public class ShutdownTask extends TimerTask
+public class ShutdownTask
 {
-    static final Format DATE = new SimpleDateFormat("HH:mm MMM d");
+    static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("HH:mm MMM d");
+
+    private static final Logger LOGGER = ForgeAutoShutdown.LOGGER;
 
     private static ShutdownTask INSTANCE;
-    private static MinecraftServer SERVER;
-    private static Logger LOGGER;
 
-    private boolean registered = false;
+    /** What the shutdown process does to the server */
+    interface Actions
+    {
+        /** Warns players that the server shuts down in the given minutes */
+        void warn(String warning, int minutesLeft);
+
+        /** Lets players log in again, as the warnings were delayed or called off */
+        void standDown();
+
+        /** Begins the graceful shutdown */
+        void shutdown();
+
+        /** Acts on a live server */
+        static Actions of(MinecraftServer server)
+        {
+            return new Actions()
+            {
+                @Override
+                public void warn(String warning, int minutesLeft)
+                {
+                    Chat.toAll(server, Component.literal("*** " + warning));
+
+                    if (FlightRecorder.isActive())
+                    {
+                        FlightRecorder.ShutdownWarningEvent event = new FlightRecorder.ShutdownWarningEvent();
+                        event.minutesLeft = minutesLeft;
+                        event.message = warning;
+                        event.commit();
+                    }
+
+                    LoginGate.setCountingDown(true, server.getPlayerCount());
+                    PreSaveTask.beginPass(server);
+                }
+
+                @Override
+                public void standDown()
+                {
+                    LoginGate.setCountingDown(false, server.getPlayerCount());
+                }
+
+                @Override
+                public void shutdown()
+                {
+                    ShutdownPipeline.start(server, Component.literal(Config.get().msgKick));
+                }
+            };
+        }
+    }
 
-    /** Creates a timer task to run at the configured time of day */
-    public static void create(MinecraftServer server)
+    /** Schedules the shutdown process to begin at the soonest configured time */
+    public static synchronized void create(MinecraftServer server)
     {
         if (INSTANCE != null)
             throw new RuntimeException("ShutdownTask can only be created once");
 
-        INSTANCE = new ShutdownTask();
-        SERVER = server;
-        LOGGER = ForgeAutoShutdown.LOGGER;
+        INSTANCE = of(server);
+        INSTANCE.scheduleNext(Config.get().schedules);
+    }
 
-        Timer timer = new Timer("ForgeAutoShutdown timer");
-        Calendar shutdownAt = Calendar.getInstance();
+    /** Drops the schedule once the server has stopped */
+    static synchronized void destroy()
+    {
+        if (INSTANCE == null)
+            return;
 
-        if (Config.scheduleUptime.get())
-        {
-            shutdownAt.add(Calendar.HOUR_OF_DAY, Config.scheduleHour.get());
-            shutdownAt.add(Calendar.MINUTE, Config.scheduleMinute.get());
-        }
-        else
-        {
-            shutdownAt.set(Calendar.HOUR_OF_DAY, Config.scheduleHour.get());
-            shutdownAt.set(Calendar.MINUTE, Config.scheduleMinute.get());
-            shutdownAt.set(Calendar.SECOND, 0);
+        if (INSTANCE.sequence != null)
+            INSTANCE.sequence.cancel(false);
 
-            if (shutdownAt.before(Calendar.getInstance()))
-                shutdownAt.add(Calendar.DAY_OF_MONTH, 1);
-        }
+        INSTANCE = null;
+    }
 
-        Date shutdownAtDate = shutdownAt.getTime();
+    private static ShutdownTask of(MinecraftServer server)
+    {
+        return new ShutdownTask(Clock.SYSTEM, Scheduler.get(), ServerProbe.of(server), Actions.of(server));
+    }
 
-        timer.schedule(INSTANCE, shutdownAtDate, 60 * 1000);
-        LOGGER.info("Next automatic shutdown: {}", DATE.format(shutdownAtDate));
+    /**
+     * Moves the next shutdown to the newly configured schedule, unless the shutdown process
+     * is already under way. Safe to call from any thread.
+     */
+    static synchronized void reschedule()
+    {
+        if (INSTANCE != null)
+            INSTANCE.applyConfig(Config.get());
     }
 
-    boolean executeTick = false;
+    /**
+     * Begins the warned shutdown process right away, skipping any delay for players, unless
+     * it is already under way. Safe to call from any thread.
+     * @param server Server instance to shut down
+     * @param reason Short description of why, for the log
+     */
+    public static synchronized void startNow(MinecraftServer server, String reason)
+    {
+        if (INSTANCE == null)
+            INSTANCE = of(server);
+
+        INSTANCE.startNow(reason);
+    }
+
+    private final Clock clock;
+    private final Scheduler scheduler;
+    private final ServerProbe probe;
+    private final Actions actions;
+    /** When the task was created at server start, which uptime entries are measured from */
+    private final long startNanos;
+
+    private ScheduledFuture<?> sequence;
+    private List<String> schedules;
+    private volatile boolean skipDelay = false;
+    /** Set on the first run of the shutdown process, after which it is no longer moved */
+    private volatile boolean begun = false;
+
     byte warningsLeft = 5;
     int delayMinutes = 0;
+    int slotWaitMinutes = 0;
+
+    ShutdownTask(Clock clock, Scheduler scheduler, ServerProbe probe, Actions actions)
+    {
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.probe = probe;
+        this.actions = actions;
+        this.startNanos = clock.nanoTime();
+    }
+
+    /** Moves the next shutdown to the given config's schedule, unless already under way */
+    void applyConfig(ConfigSnapshot config)
+    {
+        if (isUnderWay())
+            return;
+
+        if (!config.scheduleEnabled)
+        {
+            if (schedules != null)
+                LOGGER.info("Scheduled shutdown disabled");
+
+            cancel();
+        }
+        else if (!config.schedules.equals(schedules))
+            scheduleNext(config.schedules);
+    }
 
-    /** Runs from the timer thread */
-    @Override
-    public void run()
+    /** Begins the shutdown process right away, skipping any delay, unless already under way */
+    void startNow(String reason)
     {
-        if (!registered)
+        if (isUnderWay())
         {
-            MinecraftForge.EVENT_BUS.register(this);
-            registered = true;
+            LOGGER.debug("Shutdown for {} requested, but one is already under way", reason);
+            return;
         }
 
-        executeTick = true;
-        LOGGER.debug("Timer called; next ShutdownTask tick will run");
+        LOGGER.info("Starting shutdown process now because of {}", reason);
+        skipDelay = true;
+        beginAt(0L);
     }
 
-    /** Runs from the main server thread */
-    @SubscribeEvent(priority = EventPriority.HIGHEST)
-    public void onServerTick(TickEvent.ServerTickEvent event)
+    /** Schedules the shutdown process to begin at the soonest of the given schedule entries */
+    private void scheduleNext(List<String> specs)
     {
-        if (!executeTick || event.phase == TickEvent.Phase.END)
+        ShutdownSchedule schedule = new ShutdownSchedule(clock, startNanos, LoadRecorder.getHistory());
+
+        for (String spec : specs)
+        {
+            try
+            {
+                schedule.add(ShutdownSchedule.parse(spec));
+            }
+            catch (IllegalArgumentException e)
+            {
+                LOGGER.warn("{}; this entry will be ignored. Please fix this in the config.", e.getMessage());
+            }
+        }
+
+        if (schedule.isEmpty())
+        {
+            LOGGER.warn("No valid shutdown schedule is configured; scheduled shutdown is disabled");
+            cancel();
+            schedules = specs;
             return;
-        else
-            executeTick = false;
+        }
+
+        ShutdownSchedule.Entry next = schedule.peek();
+        schedules = specs;
+        beginAt(Math.max(next.deadline - clock.nanoTime(), 0L));
+        LOGGER.info("Next automatic shutdown: {} ({})", DATE.format(next.due), next);
+    }
+
+    /**
+     * Cancels the shutdown process, if it has not begun yet, reopens logins to new players and
+     * gives back any restart slot
+     */
+    private void cancel()
+    {
+        if (begun)
+            return;
+
+        if (sequence != null)
+            sequence.cancel(false);
+
+        sequence = null;
+        schedules = null;
+        Metrics.setNextShutdown(Metrics.NONE);
+        actions.standDown();
+        RestartCoordinator.release();
+    }
+
+    /**
+     * Whether the shutdown process has run at least once. A fixed rate future's delay is to its
+     * next run, so it cannot tell a countdown in between warnings from one not yet begun.
+     */
+    private boolean isUnderWay()
+    {
+        return begun;
+    }
+
+    /** Schedules the once-a-minute shutdown process, replacing any not yet begun */
+    private void beginAt(long delayNanos)
+    {
+        if (sequence != null)
+            sequence.cancel(false);
+
+        Metrics.setNextShutdown(clock.nanoTime() + delayNanos);
+        Metrics.warningsLeft = warningsLeft;
 
-        if (Config.scheduleDelay.get() && performDelay())
+        sequence = scheduler.scheduleAtFixedRate(
+            () ->
+            {
+                // Set here rather than on the main thread, so a reload can not slip in between
+                begun = true;
+                scheduler.runOnMain(this::run);
+            },
+            delayNanos,
+            TimeUnit.MINUTES.toNanos(1),
+            TimeUnit.NANOSECONDS
+        );
+    }
+
+    /** Runs from the main server thread, once a minute from the scheduled time onwards */
+    private void run()
+    {
+        ConfigSnapshot config = Config.get();
+
+        if (config.scheduleDelay && !skipDelay && performDelay(config))
         {
-            LOGGER.debug("ShutdownTask ticked; {} minute(s) of delay to go", delayMinutes);
+            LOGGER.debug("ShutdownTask ran; {} minute(s) of delay to go", delayMinutes);
             delayMinutes--;
+            Metrics.delayMinutes = delayMinutes;
             return;
         }
 
-        if (Config.scheduleWarning.get() && warningsLeft > 0)
+        if (!performSlotWait(config))
         {
-            performWarning();
-            LOGGER.debug("ShutdownTask ticked; {} warning(s) to go", warningsLeft);
+            LOGGER.debug("ShutdownTask ran; waited {} minute(s) for a restart slot", slotWaitMinutes);
+            return;
+        }
+
+        if (config.scheduleWarning && warningsLeft > 0)
+        {
+            performWarning(config);
+            LOGGER.debug("ShutdownTask ran; {} warning(s) to go", warningsLeft);
         }
         else
         {
-            Server.shutdown(SERVER, Component.literal(Config.msgKick.get()));
+            actions.shutdown();
         }
     }
 
-    private boolean performDelay()
+    private boolean performDelay(ConfigSnapshot config)
     {
         if (delayMinutes > 0)
             return true;
 
-        if (!Server.hasRealPlayers(SERVER))
+        if (!probe.hasRealPlayers())
             return false;
 
         warningsLeft = 5;
-        delayMinutes += Config.scheduleDelayBy.get();
+        delayMinutes += config.scheduleDelayBy;
+        slotWaitMinutes = 0;
+        actions.standDown();
+        // Other instances may restart meanwhile; one is taken again once the delay is over
+        RestartCoordinator.release();
+        Metrics.warningsLeft = warningsLeft;
+        Metrics.delayMinutes = delayMinutes;
         LOGGER.info("Shutdown delayed by {} minutes; server is not empty", delayMinutes);
         return true;
     }
 
-    private void performWarning()
+    /**
+     * Takes a restart slot before players are first warned, unless another instance on this
+     * host holds every slot
+     * @return Whether to go ahead; false moves the shutdown back by a minute
+     */
+    private boolean performSlotWait(ConfigSnapshot config)
     {
-        String warning = Config.msgWarn.get().replace("%m", Byte.toString(warningsLeft));
+        if (RestartCoordinator.tryAcquire() || skipDelay)
+            return true;
+
+        if (slotWaitMinutes >= config.coordinationMaxWait)
+        {
+            if (slotWaitMinutes == config.coordinationMaxWait)
+                LOGGER.warn("No restart slot free after {} minutes; shutting down anyway", slotWaitMinutes);
+
+            slotWaitMinutes = config.coordinationMaxWait + 1;
+            return true;
+        }
+
+        if (slotWaitMinutes == 0)
+            LOGGER.info("Shutdown moved back; other servers on this host hold every restart slot");
+
+        slotWaitMinutes++;
+        Metrics.slotWaitMinutes = slotWaitMinutes;
+        return false;
+    }
+
+    private void performWarning(ConfigSnapshot config)
+    {
+        String warning = config.msgWarn.replace("%m", Byte.toString(warningsLeft));
 
-        Chat.toAll(SERVER, Component.literal("*** " + warning));
         LOGGER.info(warning);
+        actions.warn(warning, warningsLeft);
+
         warningsLeft--;
+        Metrics.warningsLeft = warningsLeft;
     }
-
-    private ShutdownTask() { }
 }
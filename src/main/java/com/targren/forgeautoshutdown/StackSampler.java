@@ -0,0 +1,171 @@
+package com.targren.forgeautoshutdown;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples the stack of a single thread while the watchdog sees a hang or lag episode.
+ *
+ * Stacks are folded into "frame;frame;frame" keys and counted, which is the collapsed
+ * stack format read by flame graph tools. The amount of distinct stacks is bounded; any
+ * sample that would go over the limit is counted under a single overflow entry. Stacks are
+ * only sampled to a set depth, which cuts off their outermost frames, so a stack that
+ * reaches it is rooted under a truncation entry instead of being mixed in with shallow ones.
+ */
+class StackSampler
+{
+    private static final String OVERFLOW = "[other stacks]";
+    private static final String TRUNCATED = "[truncated]";
+    private static final int MAX_DEPTH = 256;
+
+    private final Logger logger = ForgeAutoShutdown.LOGGER;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Map<String, long[]> stacks = new HashMap<>();
+    private final StringBuilder folded = new StringBuilder(1024);
+
+    private final Thread target;
+    private final long periodNanos;
+    private final int maxStacks;
+
+    private volatile Thread sampler;
+    private int samples = 0;
+
+    /**
+     * @param target Thread to take samples of
+     * @param rate Samples to take per second
+     * @param maxStacks Amount of distinct stacks to keep counts for
+     */
+    StackSampler(Thread target, int rate, int maxStacks)
+    {
+        this.target = target;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        this.maxStacks = maxStacks;
+    }
+
+    /** Begins sampling, if not already doing so */
+    synchronized void start()
+    {
+        if (sampler != null)
+            return;
+
+        clear();
+        sampler = new Thread(this::sample, "ForgeAutoShutdown profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+        logger.debug("Profiler started sampling thread '{}'", target.getName());
+    }
+
+    /** Stops sampling and discards what was collected so far */
+    synchronized void stop()
+    {
+        if (sampler == null)
+            return;
+
+        sampler.interrupt();
+        sampler = null;
+        logger.debug("Profiler stopped after {} samples", samples);
+        clear();
+    }
+
+    boolean isSampling()
+    {
+        return sampler != null;
+    }
+
+    /** Writes all collected stacks to the given file, in collapsed stack format */
+    void write(Path file) throws IOException
+    {
+        Files.createDirectories(file.getParent());
+
+        synchronized (stacks)
+        {
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8))
+            {
+                for (Map.Entry<String, long[]> entry : stacks.entrySet())
+                {
+                    writer.write(entry.getKey());
+                    writer.write(' ');
+                    writer.write(Long.toString(entry.getValue()[0]));
+                    writer.newLine();
+                }
+            }
+
+            logger.info("Profiler wrote {} samples of {} stacks to {}", samples, stacks.size(), file);
+        }
+    }
+
+    /** Runs from the profiler thread */
+    private void sample()
+    {
+        Thread self = Thread.currentThread();
+        long targetId = target.getId();
+
+        while (sampler == self && !self.isInterrupted())
+        {
+            ThreadInfo info = threads.getThreadInfo(targetId, MAX_DEPTH);
+
+            if (info == null)
+                break;
+
+            record(info.getStackTrace());
+            LockSupport.parkNanos(periodNanos);
+        }
+    }
+
+    private void record(StackTraceElement[] trace)
+    {
+        folded.setLength(0);
+
+        if (trace.length >= MAX_DEPTH)
+            folded.append(TRUNCATED);
+
+        // Collapsed stacks list the outermost frame first
+        for (int i = trace.length - 1; i >= 0; i--)
+        {
+            StackTraceElement frame = trace[i];
+
+            if (folded.length() > 0)
+                folded.append(';');
+
+            folded.append(frame.getClassName()).append('.').append(frame.getMethodName());
+        }
+
+        synchronized (stacks)
+        {
+            String key = folded.toString();
+            long[] count = stacks.get(key);
+
+            if (count == null)
+            {
+                if (stacks.size() >= maxStacks)
+                    key = OVERFLOW;
+
+                count = stacks.computeIfAbsent(key, k -> new long[1]);
+            }
+
+            count[0]++;
+            samples++;
+        }
+    }
+
+    private void clear()
+    {
+        synchronized (stacks)
+        {
+            stacks.clear();
+            samples = 0;
+        }
+    }
+}
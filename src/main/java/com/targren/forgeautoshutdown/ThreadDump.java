@@ -0,0 +1,226 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.Server;
+import net.minecraft.server.MinecraftServer;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the evidence of a hang to a file before the server is killed: a deadlock report,
+ * every thread's full stack with the locks it holds and waits on, and optionally a class
+ * histogram of the heap.
+ *
+ * A wedged JVM may never finish any of this, so the dump is written from a thread of its
+ * own that is given a strict deadline. Sections are written most useful first and flushed
+ * as they go, so whatever was done by the deadline is kept.
+ */
+class ThreadDump
+{
+    private static final Logger LOGGER = ForgeAutoShutdown.LOGGER;
+    private static final String DIAGNOSTIC_COMMAND = "com.sun.management:type=DiagnosticCommand";
+
+    /**
+     * Writes a dump to a timestamped file, waiting for it no longer than the given time
+     * @param server Server instance being killed
+     * @param cause Short description of why, used as the file's prefix
+     * @param timeoutMillis Time to wait for the dump before giving up on it
+     */
+    static void write(MinecraftServer server, String cause, long timeoutMillis)
+    {
+        Path path = Server.getDumpPath(server, cause + "-threads", "txt");
+        long begin = System.nanoTime();
+
+        Thread writer = new Thread(() -> writeTo(path, cause), "ForgeAutoShutdown thread dump");
+        writer.setDaemon(true);
+        writer.start();
+
+        try
+        {
+            writer.join(timeoutMillis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        if (writer.isAlive())
+            LOGGER.warn("Thread dump not done after {} ms; {} may be incomplete", took, path);
+        else
+            LOGGER.warn("Thread dump written to {} in {} ms", path, took);
+    }
+
+    /** Runs from the dump thread */
+    private static void writeTo(Path path, String cause)
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        try
+        {
+            Files.createDirectories(path.getParent());
+
+            try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8))
+            {
+                out.write("ForgeAutoShutdown thread dump (" + cause + ") at " + LocalDateTime.now());
+                out.newLine();
+                out.newLine();
+
+                writeDeadlocks(out, threads);
+                out.flush();
+
+                out.write("=== All threads ===");
+                out.newLine();
+
+                ThreadInfo[] infos = threads.dumpAllThreads(
+                    threads.isObjectMonitorUsageSupported(),
+                    threads.isSynchronizerUsageSupported()
+                );
+
+                for (ThreadInfo info : infos)
+                {
+                    writeThread(out, info);
+                    out.flush();
+                }
+
+                if (Config.get().threadDumpHistogram)
+                    writeHistogram(out);
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            LOGGER.error("Could not write thread dump", e);
+        }
+    }
+
+    private static void writeDeadlocks(BufferedWriter out, ThreadMXBean threads) throws IOException
+    {
+        long[] ids = threads.isSynchronizerUsageSupported()
+            ? threads.findDeadlockedThreads()
+            : threads.findMonitorDeadlockedThreads();
+
+        out.write("=== Deadlocks ===");
+        out.newLine();
+
+        if (ids == null)
+        {
+            out.write("None found");
+            out.newLine();
+            out.newLine();
+            return;
+        }
+
+        out.write(ids.length + " threads are deadlocked:");
+        out.newLine();
+
+        for (ThreadInfo info : threads.getThreadInfo(ids, true, true))
+        {
+            if (info != null)
+                writeThread(out, info);
+        }
+    }
+
+    /** Writes a thread's full stack, in a format close to jstack's */
+    private static void writeThread(BufferedWriter out, ThreadInfo info) throws IOException
+    {
+        out.write(String.format(
+            "\"%s\" #%d%s prio=%d %s",
+            info.getThreadName(),
+            info.getThreadId(),
+            info.isDaemon() ? " daemon" : "",
+            info.getPriority(),
+            info.getThreadState()
+        ));
+
+        if (info.isSuspended())
+            out.write(" (suspended)");
+
+        if (info.isInNative())
+            out.write(" (in native)");
+
+        out.newLine();
+
+        StackTraceElement[] stack = info.getStackTrace();
+        MonitorInfo[] monitors = info.getLockedMonitors();
+
+        for (int depth = 0; depth < stack.length; depth++)
+        {
+            out.write("\tat " + stack[depth]);
+            out.newLine();
+
+            if (depth == 0 && info.getLockInfo() != null)
+            {
+                out.write("\t- waiting on " + info.getLockInfo());
+
+                if (info.getLockOwnerName() != null)
+                    out.write(" owned by \"" + info.getLockOwnerName() + "\" #" + info.getLockOwnerId());
+
+                out.newLine();
+            }
+
+            for (MonitorInfo monitor : monitors)
+            {
+                if (monitor.getLockedStackDepth() == depth)
+                {
+                    out.write("\t- locked " + monitor);
+                    out.newLine();
+                }
+            }
+        }
+
+        LockInfo[] synchronizers = info.getLockedSynchronizers();
+        if (synchronizers.length > 0)
+        {
+            out.write("\tLocked synchronizers:");
+            out.newLine();
+
+            for (LockInfo lock : synchronizers)
+            {
+                out.write("\t- " + lock);
+                out.newLine();
+            }
+        }
+
+        out.newLine();
+    }
+
+    /** Writes a class histogram of live objects, through the HotSpot diagnostic command */
+    private static void writeHistogram(BufferedWriter out) throws IOException
+    {
+        out.write("=== Class histogram ===");
+        out.newLine();
+
+        try
+        {
+            Object histogram = ManagementFactory.getPlatformMBeanServer().invoke(
+                new ObjectName(DIAGNOSTIC_COMMAND),
+                "gcClassHistogram",
+                new Object[] { new String[0] },
+                new String[] { String[].class.getName() }
+            );
+
+            out.write(String.valueOf(histogram));
+        }
+        catch (Exception e)
+        {
+            out.write("Not available: " + e);
+        }
+
+        out.newLine();
+    }
+
+    private ThreadDump() { }
+}
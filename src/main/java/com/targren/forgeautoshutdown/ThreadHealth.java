@@ -0,0 +1,264 @@
+package com.targren.forgeautoshutdown;
+
+import org.apache.logging.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Watches the server's other threads, those named by ThreadPatterns (chunk workers, IO,
+ * Netty), for faults that leave the main thread ticking but the server unusable.
+ *
+ * Every watchdog check looks for deadlocks among all threads, and compares each watched
+ * thread's CPU time and stack against the last check's. A thread that used more than
+ * SpinThreshold of a core throughout SpinTimeout seconds is spinning; one that stayed in
+ * the very same stack for StuckTimeout seconds, while blocked on a monitor or running Java
+ * code, is stuck. Threads waiting or in native code are idle or in IO, and never stuck.
+ *
+ * Thread names are read without stacks, and only watched threads have theirs taken. Runs on
+ * the scheduler thread.
+ */
+class ThreadHealth
+{
+    /** Thread faults, in the names used by the ThreadHealthKill config list */
+    enum Fault
+    {
+        DEADLOCK,
+        SPINNING,
+        STUCK;
+
+        static boolean isFault(Object name)
+        {
+            if (!(name instanceof String))
+                return false;
+
+            for (Fault fault : values())
+            {
+                if (fault.name().equalsIgnoreCase((String) name))
+                    return true;
+            }
+
+            return false;
+        }
+
+        static Fault parse(String name)
+        {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final int STACK_DEPTH = 64;
+
+    /** What was seen of a watched thread at the last check */
+    private static class Track
+    {
+        long cpuNanos = -1L;
+        int stackHash = 0;
+        int spinSeconds = 0;
+        int stuckSeconds = 0;
+        boolean reported = false;
+    }
+
+    private final Logger logger = ForgeAutoShutdown.LOGGER;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Map<Long, Track> tracks = new HashMap<>();
+    private final Set<Long> deadlocked = new HashSet<>();
+
+    ThreadHealth()
+    {
+        if (threads.isThreadCpuTimeSupported() && !threads.isThreadCpuTimeEnabled())
+            threads.setThreadCpuTimeEnabled(true);
+    }
+
+    /**
+     * Checks every watched thread once
+     * @return The fault to kill the server for, as per ThreadHealthKill, or null
+     */
+    Fault check(ConfigSnapshot config)
+    {
+        Fault kill = null;
+
+        if (checkDeadlocks() && config.threadHealthKill.contains(Fault.DEADLOCK))
+            kill = Fault.DEADLOCK;
+
+        int spinning = 0;
+        int stuck = 0;
+        Set<Long> seen = new HashSet<>();
+
+        for (ThreadInfo info : getWatched(config.threadPatterns))
+        {
+            long id = info.getThreadId();
+            Track track = tracks.computeIfAbsent(id, key -> new Track());
+            seen.add(id);
+
+            boolean wasFaulty = track.spinSeconds >= config.spinTimeout || track.stuckSeconds >= config.stuckTimeout;
+            measureSpin(config, track, id);
+            measureStuck(config, track, info);
+
+            boolean isSpinning = track.spinSeconds >= config.spinTimeout;
+            boolean isStuck = track.stuckSeconds >= config.stuckTimeout;
+
+            if (isSpinning)
+                spinning++;
+
+            if (isStuck)
+                stuck++;
+
+            if (!isSpinning && !isStuck)
+            {
+                if (wasFaulty)
+                    logger.info("Thread \"{}\" is healthy again", info.getThreadName());
+
+                track.reported = false;
+                continue;
+            }
+
+            if (!track.reported)
+            {
+                report(config, info, isSpinning, isStuck, track);
+                track.reported = true;
+            }
+
+            if (kill == null && isSpinning && config.threadHealthKill.contains(Fault.SPINNING))
+                kill = Fault.SPINNING;
+
+            if (kill == null && isStuck && config.threadHealthKill.contains(Fault.STUCK))
+                kill = Fault.STUCK;
+        }
+
+        tracks.keySet().retainAll(seen);
+        Metrics.threadsSpinning = spinning;
+        Metrics.threadsStuck = stuck;
+        return kill;
+    }
+
+    /** Logs new deadlocks; returns whether there are any */
+    private boolean checkDeadlocks()
+    {
+        long[] ids = threads.findDeadlockedThreads();
+
+        if (ids == null)
+        {
+            deadlocked.clear();
+            return false;
+        }
+
+        boolean isNew = false;
+
+        for (long id : ids)
+            isNew |= deadlocked.add(id);
+
+        if (isNew)
+        {
+            Metrics.deadlocks.incrementAndGet();
+            StringBuilder out = new StringBuilder("Deadlock found between ").append(ids.length).append(" threads:");
+
+            for (ThreadInfo info : threads.getThreadInfo(ids, true, true))
+            {
+                if (info == null)
+                    continue;
+
+                out.append(String.format("%n  \"%s\" waits on %s, held by \"%s\"",
+                    info.getThreadName(), info.getLockName(), info.getLockOwnerName()));
+
+                for (StackTraceElement frame : info.getStackTrace())
+                    out.append("\n      at ").append(frame);
+            }
+
+            logger.error(out);
+        }
+
+        return true;
+    }
+
+    /** Gets the watched threads, with their stacks */
+    private ThreadInfo[] getWatched(List<Pattern> patterns)
+    {
+        long[] ids = threads.getAllThreadIds();
+        long[] watched = new long[ids.length];
+        int count = 0;
+
+        for (ThreadInfo info : threads.getThreadInfo(ids, 0))
+        {
+            if (info != null && matches(patterns, info.getThreadName()))
+                watched[count++] = info.getThreadId();
+        }
+
+        return Arrays.stream(threads.getThreadInfo(Arrays.copyOf(watched, count), STACK_DEPTH))
+            .filter(info -> info != null)
+            .toArray(ThreadInfo[]::new);
+    }
+
+    private static boolean matches(List<Pattern> patterns, String name)
+    {
+        for (Pattern pattern : patterns)
+        {
+            if (pattern.matcher(name).matches())
+                return true;
+        }
+
+        return false;
+    }
+
+    /** Counts towards SpinTimeout while the thread used more than SpinThreshold of a core */
+    private void measureSpin(ConfigSnapshot config, Track track, long id)
+    {
+        long cpuNanos = threads.isThreadCpuTimeEnabled() ? threads.getThreadCpuTime(id) : -1L;
+        long last = track.cpuNanos;
+        track.cpuNanos = cpuNanos;
+
+        if (cpuNanos < 0 || last < 0)
+            return;
+
+        if (cpuNanos - last >= config.intervalNanos * config.spinThreshold)
+            track.spinSeconds += config.watchdogInterval;
+        else
+            track.spinSeconds = 0;
+    }
+
+    /** Counts towards StuckTimeout while the thread stays blocked or running in one stack */
+    private void measureStuck(ConfigSnapshot config, Track track, ThreadInfo info)
+    {
+        StackTraceElement[] stack = info.getStackTrace();
+        int hash = Arrays.hashCode(stack);
+        boolean busy = info.getThreadState() == Thread.State.BLOCKED
+            || (info.getThreadState() == Thread.State.RUNNABLE && !info.isInNative());
+
+        if (busy && stack.length > 0 && hash == track.stackHash)
+            track.stuckSeconds += config.watchdogInterval;
+        else
+            track.stuckSeconds = 0;
+
+        track.stackHash = hash;
+    }
+
+    private void report(ConfigSnapshot config, ThreadInfo info, boolean isSpinning, boolean isStuck, Track track)
+    {
+        StringBuilder out = new StringBuilder("Thread \"").append(info.getThreadName()).append('"');
+
+        if (isSpinning)
+            out.append(" has kept over ").append(Math.round(config.spinThreshold * 100))
+                .append("% of a core busy for ").append(track.spinSeconds).append(" seconds");
+
+        if (isSpinning && isStuck)
+            out.append(" and");
+
+        if (isStuck)
+            out.append(" has been ").append(info.getThreadState()).append(" in the same stack for ")
+                .append(track.stuckSeconds).append(" seconds");
+
+        for (StackTraceElement frame : info.getStackTrace())
+            out.append("\n      at ").append(frame);
+
+        logger.warn(out);
+    }
+}
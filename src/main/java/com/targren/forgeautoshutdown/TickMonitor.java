@@ -0,0 +1,167 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.TickStats;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Singleton event handler that times every server tick, and every level's share of it.
+ *
+ * The start of a tick is taken at the highest priority and the end at the lowest, so the
+ * measured duration covers every other mod's tick handlers as well as the server's own work.
+ *
+ * The end of every tick is also published as a heartbeat for the watchdog thread. It is a
+ * single field written with release semantics, which is a plain store on x86, as is the
+ * sample count of each {@link TickStats}, so that the main thread pays no fence for either.
+ */
+public class TickMonitor
+{
+    private static final VarHandle HEARTBEAT;
+
+    private static TickMonitor INSTANCE;
+    /** When the last tick ended, as per {@link System#nanoTime()}; only accessed through HEARTBEAT */
+    @SuppressWarnings("unused")
+    private static long heartbeat = 0L;
+
+    static
+    {
+        try
+        {
+            HEARTBEAT = MethodHandles.lookup().findStaticVarHandle(TickMonitor.class, "heartbeat", long.class);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Creates the monitor and starts recording ticks */
+    public static void create()
+    {
+        if (INSTANCE != null)
+            throw new RuntimeException("TickMonitor can only be created once");
+
+        INSTANCE = new TickMonitor(Config.statsWindow.get());
+        MinecraftForge.EVENT_BUS.register(INSTANCE);
+    }
+
+    /** Stops recording ticks and forgets the last heartbeat, once the server has stopped */
+    static void destroy()
+    {
+        if (INSTANCE == null)
+            return;
+
+        MinecraftForge.EVENT_BUS.unregister(INSTANCE);
+        INSTANCE = null;
+        HEARTBEAT.setRelease(0L);
+    }
+
+    /** Gets the server-wide tick statistics, or null if the monitor is not running */
+    public static TickStats getStats()
+    {
+        return INSTANCE == null ? null : INSTANCE.stats;
+    }
+
+    /** Gets when the current tick started, as per {@link System#nanoTime()}; main thread only */
+    public static long getTickStart()
+    {
+        return INSTANCE == null ? System.nanoTime() : INSTANCE.tickStart;
+    }
+
+    /** Gets when the last tick ended, as per {@link System#nanoTime()}, or 0 if none has yet */
+    public static long getHeartbeat()
+    {
+        return (long) HEARTBEAT.getAcquire();
+    }
+
+    /** Gets the tick statistics of every level ticked so far, or null if not running */
+    public static Map<ResourceKey<Level>, TickStats> getLevelStats()
+    {
+        return INSTANCE == null ? null : INSTANCE.levelStats;
+    }
+
+    private final Map<ResourceKey<Level>, TickStats> levelStats = new ConcurrentHashMap<>();
+    private final Map<ResourceKey<Level>, LevelTimer> levelTimers = new ConcurrentHashMap<>();
+
+    private final int window;
+    private final TickStats stats;
+    private long tickStart = 0L;
+
+    private TickMonitor(int window)
+    {
+        this.window = window;
+        this.stats = new TickStats(window);
+    }
+
+    /** Runs from the main server thread */
+    @SubscribeEvent(priority = EventPriority.HIGHEST)
+    public void onTickStart(TickEvent.ServerTickEvent event)
+    {
+        if (event.phase == TickEvent.Phase.START)
+            tickStart = System.nanoTime();
+    }
+
+    /** Runs from the main server thread */
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onTickEnd(TickEvent.ServerTickEvent event)
+    {
+        if (event.phase != TickEvent.Phase.END || tickStart == 0L)
+            return;
+
+        long now = System.nanoTime();
+        stats.record(now - tickStart);
+        HEARTBEAT.setRelease(now);
+    }
+
+    /** Runs from the main server thread */
+    @SubscribeEvent(priority = EventPriority.HIGHEST)
+    public void onLevelTickStart(TickEvent.LevelTickEvent event)
+    {
+        if (event.phase != TickEvent.Phase.START || event.level.isClientSide())
+            return;
+
+        LevelTimer timer = levelTimers.get(event.level.dimension());
+
+        if (timer == null)
+        {
+            timer = new LevelTimer(new TickStats(window));
+            levelTimers.put(event.level.dimension(), timer);
+            levelStats.put(event.level.dimension(), timer.stats);
+        }
+
+        timer.start = System.nanoTime();
+    }
+
+    /** Runs from the main server thread */
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onLevelTickEnd(TickEvent.LevelTickEvent event)
+    {
+        if (event.phase != TickEvent.Phase.END || event.level.isClientSide())
+            return;
+
+        LevelTimer timer = levelTimers.get(event.level.dimension());
+
+        if (timer != null)
+            timer.stats.record(System.nanoTime() - timer.start);
+    }
+
+    private static class LevelTimer
+    {
+        final TickStats stats;
+        long start = 0L;
+
+        LevelTimer(TickStats stats)
+        {
+            this.stats = stats;
+        }
+    }
+}
@@ -1,140 +1,510 @@
 package com.targren.forgeautoshutdown;
 
+import com.targren.forgeautoshutdown.util.Clock;
+import com.targren.forgeautoshutdown.util.FlightLog;
+import com.targren.forgeautoshutdown.util.Server;
+import com.targren.forgeautoshutdown.util.TickStats;
 import net.minecraft.server.MinecraftServer;
 import org.apache.logging.log4j.Logger;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 /**
- * Singleton that acts as a timer task for monitoring server stalls
+ * Singleton that runs periodically on the scheduler thread, for monitoring server stalls.
+ *
+ * Hangs are caught on a dedicated watchdog thread instead, which wakes every
+ * HeartbeatInterval milliseconds to compare the clock against the heartbeat the server
+ * thread writes at the end of every tick. That times a hang to within one wake-up of the
+ * last completed tick, rather than to within a whole Interval.
+ *
+ * Time the whole JVM spent paused is not counted towards a hang. That is GC pause time as
+ * reported by the collectors, or the watchdog thread waking up late, which happens when every
+ * thread was stopped (e.g. at a safepoint). Such stalls are logged separately instead.
+ *
+ * Every decision is made from a {@link Clock} and a {@link ServerProbe}, and kills go through
+ * a callback, so that the simulation harness can replay tick time traces against it.
  */
-public class WatchdogTask extends TimerTask
+public class WatchdogTask implements Runnable
 {
-    private static WatchdogTask INSTANCE;
+    private static final Logger LOGGER = ForgeAutoShutdown.LOGGER;
+
+    private static volatile WatchdogTask INSTANCE;
     private static MinecraftServer SERVER;
-    private static Logger LOGGER;
 
     public static void create(MinecraftServer server)
     {
         if (INSTANCE != null)
             throw new RuntimeException("WatchdogTask can only be created once");
 
-        INSTANCE = new WatchdogTask();
         SERVER = server;
-        LOGGER = ForgeAutoShutdown.LOGGER;
+        INSTANCE = new WatchdogTask(Clock.SYSTEM, ServerProbe.of(server), null);
+
+        if (Config.profilerEnabled.get())
+            INSTANCE.sampler = new StackSampler(
+                server.getRunningThread(),
+                Config.profilerRate.get(),
+                Config.profilerMaxStacks.get()
+            );
+
+        if (Config.memoryMonitor.get())
+            INSTANCE.memory = new MemoryMonitor(server);
+
+        if (Config.flightRecorder.get())
+            FlightRecorder.create(server);
+
+        INSTANCE.dimensions = new DimensionWatch();
+        INSTANCE.mitigation = new LagMitigation(server);
+        INSTANCE.threads = new ThreadHealth();
+        INSTANCE.schedule(Config.get().watchdogInterval);
+        INSTANCE.startHeartbeatThread();
+    }
+
+    /** Stops every check and listener once the server has stopped */
+    static void destroy()
+    {
+        WatchdogTask watchdog = INSTANCE;
+
+        if (watchdog == null)
+            return;
 
-        Timer timer = new Timer("ForgeAutoShutdown watchdog");
-        int intervalMs = Config.watchdogInterval.get() * 1000;
-        timer.schedule(INSTANCE, intervalMs, intervalMs);
-        LOGGER.debug("Watchdog timer running");
+        INSTANCE = null;
+        SERVER = null;
+        watchdog.heartbeatThread = null;
+
+        if (watchdog.future != null)
+            watchdog.future.cancel(false);
+
+        watchdog.stopProfiling();
+        watchdog.mitigation.close();
+
+        if (watchdog.memory != null)
+            watchdog.memory.close();
+    }
+
+    /**
+     * Moves the watchdog to the newly configured interval, or stops it if it was disabled.
+     * Safe to call from any thread; the change is made on the scheduler thread, between runs.
+     */
+    static void reschedule()
+    {
+        if (INSTANCE != null)
+            Scheduler.get().schedule(INSTANCE::applyConfig, 0L, TimeUnit.NANOSECONDS);
     }
 
-    private int lastTick = 0;
-    private int hungTicks = 0;
-    private int lagTicks = 0;
+    private final Clock clock;
+    private final ServerProbe probe;
+    private final Consumer<String> killer;
+
+    private final AtomicBoolean killed = new AtomicBoolean();
+
+    private ScheduledFuture<?> future;
+    private int interval;
+    private volatile Thread heartbeatThread;
+
+    private volatile int lagSeconds = 0;
 
-    private boolean isHanging = false;
+    /** Time the next run is expected after the last one, usually the interval */
+    private long expectedNanos;
+    private long lastRunNanos;
+    private long lastGcMillis;
 
+    private int stalls = 0;
+
+    /** Last heartbeat seen, and how long the whole JVM was paused for since; heartbeat thread only */
+    private long lastBeat = 0L;
+    private long beatPausedNanos = 0L;
+    private long lastBeatCheckNanos;
+    private long lastBeatGcMillis;
+
+    private volatile boolean isHanging = false;
+
+    private StackSampler sampler;
+    private DimensionWatch dimensions;
+    private LagMitigation mitigation;
+    private ThreadHealth threads;
+    private MemoryMonitor memory;
+
+    /**
+     * Creates a watchdog with the current config; it is not scheduled to run by itself
+     * @param clock Clock to measure hangs and pauses by
+     * @param probe Server to watch
+     * @param killer Called with the cause when the server should be killed, or null to kill
+     *               the live server
+     */
+    WatchdogTask(Clock clock, ServerProbe probe, Consumer<String> killer)
+    {
+        this.clock = clock;
+        this.probe = probe;
+        this.killer = killer == null ? this::performKill : killer;
+        this.expectedNanos = Config.get().intervalNanos;
+        this.lastRunNanos = clock.nanoTime();
+        this.lastGcMillis = probe.getGcPauseMillis();
+        this.lastBeatCheckNanos = lastRunNanos;
+        this.lastBeatGcMillis = lastGcMillis;
+    }
+
+    /** Checks for low TPS and stalls; hangs are left to the heartbeat thread */
     @Override
     public void run()
     {
-        if (isHanging)
-            doHanging();
-        else
+        measurePauses();
+
+        if (!isHanging)
             doMonitor();
+
+        recordCheck();
+    }
+
+    private void schedule(int seconds)
+    {
+        interval = seconds;
+        future = Scheduler.get().scheduleAtFixedRate(this, seconds, seconds, TimeUnit.SECONDS);
+        LOGGER.debug("Watchdog scheduled every {} seconds", seconds);
+    }
+
+    /** Runs on the scheduler thread after a config reload */
+    private void applyConfig()
+    {
+        ConfigSnapshot config = Config.get();
+
+        if (!config.watchdogEnabled)
+        {
+            if (future != null)
+            {
+                future.cancel(false);
+                future = null;
+                heartbeatThread = null;
+                stopProfiling();
+                LOGGER.info("Watchdog disabled");
+            }
+
+            return;
+        }
+
+        if (heartbeatThread == null)
+            startHeartbeatThread();
+
+        if (future != null && config.watchdogInterval == interval)
+            return;
+
+        if (future != null)
+            future.cancel(false);
+
+        // Time since the last run still counts towards a hang, but not as the next run being late
+        expectedNanos = clock.nanoTime() - lastRunNanos + config.intervalNanos;
+        schedule(config.watchdogInterval);
     }
 
     /** Checks if server is hung on a tick, then if TPS is too low for too long */
     private void doMonitor()
     {
-        double averageTickTime = SERVER.getAverageTickTime();
-        double tps = averageTickTime <= 0 ? 20.0 : Math.min(1000.0 / averageTickTime, 20.0);
+        ConfigSnapshot config = Config.get();
+        double averageTickTime = probe.getAverageTickTime();
+        TickStats.Summary ticks = probe.getTickSummary();
+        double tickMillis = config.lagMetric.select(averageTickTime, ticks);
+        double tps = TickStats.toTps(tickMillis);
+
+        Metrics.watchdogChecks.incrementAndGet();
+        Metrics.ticks = ticks;
+        Metrics.averageTickMillis = averageTickTime;
+        Metrics.tps = tps;
 
         if (LOGGER.isTraceEnabled())
         {
             LOGGER.trace("Watchdog: 100 tick avg. latency: {} / 50 ms", averageTickTime);
-            LOGGER.trace("Watchdog: 100 tick avg. TPS: {} / 20", String.format("%.2f", tps));
+            LOGGER.trace(
+                "Watchdog: {} tick latency p95/p99/max: {} / {} / {} ms",
+                ticks.samples,
+                String.format("%.2f", ticks.p95),
+                String.format("%.2f", ticks.p99),
+                String.format("%.2f", ticks.max)
+            );
+            LOGGER.trace("Watchdog: {} TPS: {} / 20", config.lagMetric, String.format("%.2f", tps));
         }
 
-        int serverTick = SERVER.getTickCount();
-        if (serverTick == lastTick)
+        if (SERVER != null)
+            LoginGate.onCheck(config, tickMillis, SERVER.getPlayerCount());
+
+        if (dimensions != null)
+            dimensions.check(SERVER);
+
+        if (threads != null && config.threadHealth)
         {
-            LOGGER.debug("No advance in server ticks; server is hanging");
-            isHanging = true;
-            hungTicks = 1;
-            return;
+            ThreadHealth.Fault fault = threads.check(config);
+
+            if (fault != null)
+            {
+                String cause = fault.name().toLowerCase(Locale.ROOT);
+                LOGGER.warn("Thread health check found a {} thread; see above for which", cause);
+                kill(cause);
+                return;
+            }
         }
-        else
-            lastTick = serverTick;
 
-        if (tps < Config.lowTPSThreshold.get())
+        boolean lagging = tps < config.lowTPSThreshold;
+
+        if (mitigation != null)
+            mitigation.onCheck(config, lagging);
+
+        if (lagging)
         {
-            lagTicks++;
-            int lagSec = lagTicks * Config.watchdogInterval.get();
-            LOGGER.trace("TPS too low since {} seconds", lagSec);
+            if (lagSeconds == 0)
+            {
+                Metrics.lagSpells.incrementAndGet();
+                FlightLogWriter.record(FlightLog.Kind.LAG, 0L);
+                LOGGER.info("TPS below {}; slowest dimension is {}", config.lowTPSThreshold, describeWorst());
 
-            if (lagSec >= Config.lowTPSTimeout.get())
+                if (config.census && SERVER != null)
+                    Scheduler.get().runOnMain(() -> WorldCensus.startForLag(SERVER));
+            }
+
+            lagSeconds += config.watchdogInterval;
+            LOGGER.trace("TPS too low since {} seconds", lagSeconds);
+            startProfiling();
+            Metrics.lagSeconds = lagSeconds;
+
+            if (lagSeconds >= config.lowTPSTimeout && (mitigation == null || !mitigation.escalate(config)))
             {
                 LOGGER.warn(
-                    "TPS below {} since {} seconds",
-                    Config.lowTPSThreshold.get(),
-                    lagSec
+                    "TPS below {} since {} seconds; slowest dimension is {}",
+                    config.lowTPSThreshold,
+                    lagSeconds,
+                    describeWorst()
                 );
 
-                if (Config.attemptSoftKill.get())
-                    performSoftKill();
-                else
-                    performHardKill();
+                kill("lag");
             }
         }
         else
-            lagTicks = 0;
+        {
+            if (lagSeconds > 0)
+                FlightLogWriter.record(FlightLog.Kind.LAG_END, lagSeconds);
+
+            lagSeconds = 0;
+            Metrics.lagSeconds = 0;
+            stopProfiling();
+        }
     }
 
-    /** Regular check of a hanging server; kills if confirmed hung */
-    private void doHanging()
+    private void startHeartbeatThread()
     {
-        int serverTick = SERVER.getTickCount();
-        if (serverTick != lastTick)
+        Thread thread = new Thread(this::watchHeartbeat, "ForgeAutoShutdown watchdog");
+        thread.setDaemon(true);
+        heartbeatThread = thread;
+        thread.start();
+    }
+
+    /** Runs on the heartbeat thread until the watchdog is disabled */
+    private void watchHeartbeat()
+    {
+        while (heartbeatThread == Thread.currentThread())
         {
-            LOGGER.debug("Server no longer hanging");
-            isHanging = false;
+            LockSupport.parkNanos(Config.get().heartbeatNanos);
+
+            try
+            {
+                checkHeartbeat();
+            }
+            catch (RuntimeException e)
+            {
+                LOGGER.error("Heartbeat check failed", e);
+            }
+        }
+    }
+
+    /**
+     * Times how long the server has gone without finishing a tick, not counting JVM pauses;
+     * counts it as hanging after Interval seconds, and kills it after Timeout seconds. During
+     * a graceful shutdown the main thread saves rather than ticks, so progress saving counts
+     * as a tick, and only a save that has stopped making progress is a hang.
+     */
+    void checkHeartbeat()
+    {
+        ConfigSnapshot config = Config.get();
+        long now = clock.nanoTime();
+        long gcMillis = probe.getGcPauseMillis();
+        long beat = probe.getHeartbeat();
+
+        if (beat != 0L && ShutdownPipeline.isRunning())
+            beat = Math.max(beat, SaveProgress.getLastProgress());
+
+        long elapsedNanos = now - lastBeatCheckNanos;
+        long lateNanos = Math.max(elapsedNanos - config.heartbeatNanos, 0L);
+        long gcNanos = TimeUnit.MILLISECONDS.toNanos(gcMillis - lastBeatGcMillis);
+        lastBeatCheckNanos = now;
+        lastBeatGcMillis = gcMillis;
+
+        if (beat == 0L)
+            return;
+
+        if (beat != lastBeat)
+        {
+            if (isHanging)
+            {
+                LOGGER.debug("Server no longer hanging after {} ms", TimeUnit.NANOSECONDS.toMillis(beat - lastBeat));
+                FlightLogWriter.record(FlightLog.Kind.RECOVERED, TimeUnit.NANOSECONDS.toMillis(beat - lastBeat));
+                isHanging = false;
+                Metrics.hanging = false;
+
+                if (lagSeconds == 0)
+                    stopProfiling();
+            }
+
+            lastBeat = beat;
+            beatPausedNanos = 0L;
             return;
         }
 
-        hungTicks++;
-        int hangSec = hungTicks * Config.watchdogInterval.get();
-        LOGGER.trace("Server hanging for {} seconds", hangSec);
+        // GC pauses also make this check late, so the two overlap rather than add up
+        beatPausedNanos += Math.min(Math.max(gcNanos, lateNanos), elapsedNanos);
+        long hangNanos = now - beat - beatPausedNanos;
+
+        if (!isHanging && hangNanos >= config.intervalNanos)
+        {
+            LOGGER.debug("No tick has ended for {} ms; server is hanging", TimeUnit.NANOSECONDS.toMillis(hangNanos));
+            isHanging = true;
+            Metrics.hanging = true;
+            Metrics.hangs.incrementAndGet();
+            FlightLogWriter.record(FlightLog.Kind.HANG, TimeUnit.NANOSECONDS.toMillis(hangNanos));
+            startProfiling();
+        }
 
-        if (hangSec >= Config.maxTickTimeout.get())
+        if (hangNanos >= config.maxTickNanos)
         {
-            LOGGER.warn("Server is hung on a tick after {} seconds", hangSec);
+            LOGGER.warn("Server is hung on a tick after {} ms, not counting JVM pauses", TimeUnit.NANOSECONDS.toMillis(hangNanos));
+            kill("hang");
+        }
+    }
 
-            if (Config.attemptSoftKill.get())
-                performSoftKill();
-            else
-                performHardKill();
+    /**
+     * Reports whole JVM stalls since the last run: GC pauses, or this run being late, which
+     * means the scheduler thread was stopped as well
+     */
+    private void measurePauses()
+    {
+        ConfigSnapshot config = Config.get();
+        long now = clock.nanoTime();
+        long gcMillis = probe.getGcPauseMillis();
+        long gcNanos = TimeUnit.MILLISECONDS.toNanos(gcMillis - lastGcMillis);
+
+        long lateNanos = Math.max(now - lastRunNanos - expectedNanos, 0L);
+        expectedNanos = config.intervalNanos;
+        lastRunNanos = now;
+        lastGcMillis = gcMillis;
+
+        if (lateNanos >= config.stallNanos)
+        {
+            stalls++;
+            Metrics.stalls.incrementAndGet();
+            FlightLogWriter.record(FlightLog.Kind.STALL, TimeUnit.NANOSECONDS.toMillis(lateNanos));
+            LOGGER.warn(
+                "Watchdog ran {} ms late, with {} ms of GC pauses; the whole JVM stalled (stall #{})",
+                TimeUnit.NANOSECONDS.toMillis(lateNanos),
+                TimeUnit.NANOSECONDS.toMillis(gcNanos),
+                stalls
+            );
         }
+        else if (gcNanos >= config.stallNanos)
+            LOGGER.info("GC paused the JVM for {} ms since the last check", TimeUnit.NANOSECONDS.toMillis(gcNanos));
     }
 
-    private void performSoftKill()
+    private String describeWorst()
     {
-        LOGGER.warn("Attempting a soft kill of the server...");
+        return dimensions == null ? "unknown" : dimensions.describeWorst();
+    }
+
+    /** Records this check's figures to the flight log and recording, if either is running */
+    private void recordCheck()
+    {
+        FlightLogWriter.record(FlightLog.Kind.CHECK, Metrics.lagSeconds);
+
+        if (!FlightRecorder.isActive())
+            return;
+
+        FlightRecorder.WatchdogCheckEvent event = new FlightRecorder.WatchdogCheckEvent();
+
+        if (!event.shouldCommit())
+            return;
+
+        TickStats.Summary ticks = Metrics.ticks;
+        event.tps = Metrics.tps;
+        event.averageTickTime = Metrics.averageTickMillis;
+        event.p99TickTime = ticks == null ? 0 : ticks.p99;
+        event.maxTickTime = ticks == null ? 0 : ticks.max;
+        event.hanging = isHanging;
+        event.lagSeconds = Metrics.lagSeconds;
+        event.commit();
+    }
+
+    private void startProfiling()
+    {
+        if (sampler != null)
+            sampler.start();
+    }
+
+    private void stopProfiling()
+    {
+        if (sampler != null)
+            sampler.stop();
+    }
+
+    /** Kills the server only once, as both threads may find cause to */
+    private void kill(String cause)
+    {
+        if (killed.compareAndSet(false, true))
+            killer.accept(cause);
+    }
 
-        Thread hardKillCheck = new Thread("Shutdown watchdog")
+    /** Saves what the profiler and flight recorder have collected, then kills the server as per config */
+    private void performKill(String cause)
+    {
+        ConfigSnapshot config = Config.get();
+
+        if (FlightRecorder.isActive())
+        {
+            FlightRecorder.WatchdogKillEvent event = new FlightRecorder.WatchdogKillEvent();
+            event.cause = cause;
+            event.hard = !config.attemptSoftKill;
+            event.commit();
+        }
+
+        if (sampler != null && sampler.isSampling())
         {
-            public void run()
+            try
             {
-                try
-                {
-                    Thread.sleep(10000);
-                    System.out.println("Hung during soft kill; trying a hard kill..");
-                    performHardKill();
-                }
-                catch (InterruptedException ignored) { }
+                sampler.write(Server.getDumpPath(SERVER, cause, "collapsed"));
             }
-        };
+            catch (IOException e)
+            {
+                LOGGER.error("Could not write profiler samples", e);
+            }
+
+            sampler.stop();
+        }
+
+        FlightRecorder.dump(cause);
+
+        if (config.attemptSoftKill)
+            performSoftKill(config, cause);
+        else
+            performHardKill(config, cause);
+    }
+
+    private void performSoftKill(ConfigSnapshot config, String cause)
+    {
+        LOGGER.warn("Attempting a soft kill of the server...");
+        Metrics.softKills.incrementAndGet();
+        FlightLogWriter.record(FlightLog.Kind.SOFT_KILL, 0L);
+
+        // Waiting on a save only starts now, not from whenever the last autosave was
+        SaveProgress.beat();
+        Thread hardKillCheck = new Thread(() -> awaitSoftKill(config, cause), "Shutdown watchdog");
 
         hardKillCheck.setDaemon(true);
         hardKillCheck.start();
@@ -142,11 +512,61 @@ public class WatchdogTask extends TimerTask
         SERVER.halt(false);
     }
 
-    private void performHardKill()
+    /**
+     * Holds back the hard kill for as long as the server keeps saving, up to SoftKillCeiling;
+     * runs on its own thread until the JVM exits or the server is hard killed
+     */
+    private void awaitSoftKill(ConfigSnapshot config, String cause)
+    {
+        long begin = System.nanoTime();
+        long startSteps = SaveProgress.getSteps();
+
+        while (true)
+        {
+            LockSupport.parkNanos(config.heartbeatNanos);
+
+            // The server stopped within the time allowed
+            if (INSTANCE != this)
+                return;
+
+            long now = System.nanoTime();
+            long idleNanos = now - SaveProgress.getLastProgress();
+
+            if (idleNanos >= config.softKillTimeoutNanos)
+            {
+                LOGGER.warn(
+                    "Soft kill made no save progress for {} ms, after {} steps; trying a hard kill",
+                    TimeUnit.NANOSECONDS.toMillis(idleNanos),
+                    SaveProgress.getSteps() - startSteps
+                );
+                break;
+            }
+
+            if (now - begin >= config.softKillCeilingNanos)
+            {
+                LOGGER.warn(
+                    "Server still saving {} seconds after soft kill, after {} steps; trying a hard kill",
+                    TimeUnit.NANOSECONDS.toSeconds(now - begin),
+                    SaveProgress.getSteps() - startSteps
+                );
+                break;
+            }
+        }
+
+        performHardKill(config, cause);
+    }
+
+    /** Writes a thread dump within its time limit, then halts the JVM */
+    private void performHardKill(ConfigSnapshot config, String cause)
     {
         LOGGER.warn("Attempting a hard kill of the server - data may be lost!");
+        Metrics.hardKills.incrementAndGet();
+        FlightLogWriter.record(FlightLog.Kind.HARD_KILL, 0L);
+        FlightLogWriter.force();
+
+        if (config.threadDump)
+            ThreadDump.write(SERVER, cause, config.threadDumpTimeoutMillis);
+
         Runtime.getRuntime().halt(1);
     }
-
-    private WatchdogTask() { }
 }
@@ -0,0 +1,326 @@
+package com.targren.forgeautoshutdown;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ChunkHolder;
+import net.minecraft.server.level.ChunkMap;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.entity.BlockEntityType;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.util.ObfuscationReflectionHelper;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton that counts, for every level, the loaded chunks, entities by type and ticking
+ * block entities by type, and finds the chunks most densely packed with both.
+ *
+ * A census is taken a slice at a time at the end of each tick, within CensusBudget
+ * milliseconds, so that taking it does not add to the lag it is looking into. Each level's
+ * chunks and entities are copied into lists when the census reaches it, and walked from
+ * there; anything removed in the meantime is skipped. The tick handler is only registered
+ * while a census is running.
+ */
+class WorldCensus
+{
+    /** Least time between censuses started for low TPS */
+    private static final long LAG_COOLDOWN_NANOS = TimeUnit.MINUTES.toNanos(10);
+    /** Items to count between checks of the clock */
+    private static final int SLICE = 32;
+    /** ChunkMap.getChunks, which is not public */
+    static final Method GET_CHUNKS = findGetChunks();
+
+    private static WorldCensus INSTANCE;
+    private static volatile Report LAST;
+    private static long lastLagCensus = Long.MIN_VALUE;
+
+    /**
+     * Starts a census, unless one is already running; runs from the main server thread
+     * @return Whether a new census was started
+     */
+    static boolean start(MinecraftServer server, String reason)
+    {
+        if (INSTANCE != null)
+            return false;
+
+        ForgeAutoShutdown.LOGGER.info("Taking a world census because of {}", reason);
+        INSTANCE = new WorldCensus(server);
+        MinecraftForge.EVENT_BUS.register(INSTANCE);
+        return true;
+    }
+
+    /** Drops a census still in progress once the server has stopped */
+    static void destroy()
+    {
+        if (INSTANCE == null)
+            return;
+
+        MinecraftForge.EVENT_BUS.unregister(INSTANCE);
+        INSTANCE = null;
+    }
+
+    /** Starts a census when TPS first drops, at most once per cooldown; runs from the main server thread */
+    static void startForLag(MinecraftServer server)
+    {
+        long now = System.nanoTime();
+
+        if (lastLagCensus != Long.MIN_VALUE && now - lastLagCensus < LAG_COOLDOWN_NANOS)
+            return;
+
+        if (start(server, "low TPS"))
+            lastLagCensus = now;
+    }
+
+    /** Gets the last census to finish, or null if none has yet */
+    static Report getLast()
+    {
+        return LAST;
+    }
+
+    /** Counts of one level, and its densest chunks */
+    static class LevelReport
+    {
+        final String dimension;
+        final int loadedChunks;
+        int tickingChunks = 0;
+        int entities = 0;
+        int blockEntities = 0;
+        final Map<String, Integer> entityTypes = new HashMap<>();
+        final Map<String, Integer> blockEntityTypes = new HashMap<>();
+        /** Chunk position to its entities and ticking block entities */
+        final Map<Long, int[]> chunks = new HashMap<>();
+        List<Map.Entry<Long, int[]>> densest = List.of();
+
+        LevelReport(String dimension, int loadedChunks)
+        {
+            this.dimension = dimension;
+            this.loadedChunks = loadedChunks;
+        }
+
+        /** Gets the given amount of most common types out of a map of counts */
+        static List<Map.Entry<String, Integer>> top(Map<String, Integer> types, int count)
+        {
+            List<Map.Entry<String, Integer>> entries = new ArrayList<>(types.entrySet());
+            entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+            return entries.subList(0, Math.min(count, entries.size()));
+        }
+    }
+
+    /** A finished census of every level */
+    static class Report
+    {
+        final LocalDateTime taken = LocalDateTime.now();
+        final List<LevelReport> levels;
+        final int ticks;
+
+        Report(List<LevelReport> levels, int ticks)
+        {
+            this.levels = levels;
+            this.ticks = ticks;
+        }
+    }
+
+    private final Logger logger = ForgeAutoShutdown.LOGGER;
+    private final Deque<ServerLevel> queue = new ArrayDeque<>();
+    private final List<LevelReport> done = new ArrayList<>();
+
+    private ServerLevel level;
+    private LevelReport report;
+    private List<ChunkHolder> chunks;
+    private List<Entity> entities;
+    private int cursor = 0;
+    private int ticks = 0;
+
+    private WorldCensus(MinecraftServer server)
+    {
+        for (ServerLevel level : server.getAllLevels())
+            queue.add(level);
+    }
+
+    /** Runs from the main server thread */
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if (event.phase != TickEvent.Phase.END)
+            return;
+
+        ConfigSnapshot config = Config.get();
+        long deadline = System.nanoTime() + config.censusBudgetNanos;
+        ticks++;
+
+        while (System.nanoTime() < deadline)
+        {
+            if (level == null && !nextLevel())
+            {
+                finish(config.censusTopChunks);
+                return;
+            }
+
+            if (chunks != null)
+                countChunks();
+            else
+                countEntities();
+        }
+    }
+
+    /** Moves on to the next level, copying out its chunks; returns false once all are done */
+    private boolean nextLevel()
+    {
+        if (report != null)
+            done.add(report);
+
+        level = queue.poll();
+
+        if (level == null)
+            return false;
+
+        report = new LevelReport(level.dimension().location().toString(), level.getChunkSource().getLoadedChunksCount());
+        chunks = new ArrayList<>();
+        cursor = 0;
+
+        if (GET_CHUNKS == null)
+            return true;
+
+        try
+        {
+            for (Object holder : (Iterable<?>) GET_CHUNKS.invoke(level.getChunkSource().chunkMap))
+                chunks.add((ChunkHolder) holder);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            logger.warn("Could not list the chunks of {}; counting its entities only", report.dimension, e);
+        }
+
+        return true;
+    }
+
+    private static Method findGetChunks()
+    {
+        try
+        {
+            return ObfuscationReflectionHelper.findMethod(ChunkMap.class, "m_140416_");
+        }
+        catch (RuntimeException e)
+        {
+            ForgeAutoShutdown.LOGGER.warn("Could not find ChunkMap.getChunks; census will not count block entities, and pre-saving will leave chunks to the final save", e);
+            return null;
+        }
+    }
+
+    /** Counts ticking block entities in a slice of the level's chunks */
+    private void countChunks()
+    {
+        int end = Math.min(cursor + SLICE, chunks.size());
+
+        for (; cursor < end; cursor++)
+        {
+            LevelChunk chunk = chunks.get(cursor).getTickingChunk();
+
+            if (chunk == null)
+                continue;
+
+            report.tickingChunks++;
+            int ticking = 0;
+
+            for (BlockEntity blockEntity : chunk.getBlockEntities().values())
+            {
+                if (blockEntity.isRemoved() || blockEntity.getBlockState().getTicker(level, blockEntity.getType()) == null)
+                    continue;
+
+                ticking++;
+                report.blockEntityTypes.merge(String.valueOf(BlockEntityType.getKey(blockEntity.getType())), 1, Integer::sum);
+            }
+
+            if (ticking > 0)
+            {
+                report.blockEntities += ticking;
+                report.chunks.computeIfAbsent(chunk.getPos().toLong(), pos -> new int[2])[1] += ticking;
+            }
+        }
+
+        if (cursor >= chunks.size())
+        {
+            chunks = null;
+            entities = new ArrayList<>();
+            level.getAllEntities().forEach(entities::add);
+            cursor = 0;
+        }
+    }
+
+    /** Counts a slice of the level's entities */
+    private void countEntities()
+    {
+        int end = Math.min(cursor + SLICE, entities.size());
+
+        for (; cursor < end; cursor++)
+        {
+            Entity entity = entities.get(cursor);
+
+            if (entity.isRemoved())
+                continue;
+
+            report.entities++;
+            report.entityTypes.merge(String.valueOf(EntityType.getKey(entity.getType())), 1, Integer::sum);
+            report.chunks.computeIfAbsent(entity.chunkPosition().toLong(), pos -> new int[2])[0]++;
+        }
+
+        if (cursor >= entities.size())
+        {
+            entities = null;
+            level = null;
+        }
+    }
+
+    private void finish(int topChunks)
+    {
+        for (LevelReport level : done)
+        {
+            List<Map.Entry<Long, int[]>> densest = new ArrayList<>(level.chunks.entrySet());
+            densest.sort(Comparator.comparingInt((Map.Entry<Long, int[]> chunk) -> chunk.getValue()[0] + chunk.getValue()[1]).reversed());
+            level.densest = densest.subList(0, Math.min(topChunks, densest.size()));
+        }
+
+        LAST = new Report(done, ticks);
+        MinecraftForge.EVENT_BUS.unregister(this);
+        INSTANCE = null;
+        log(LAST);
+    }
+
+    private void log(Report census)
+    {
+        StringBuilder out = new StringBuilder("World census, taken over ").append(census.ticks).append(" ticks:");
+
+        for (LevelReport level : census.levels)
+        {
+            out.append(String.format("%n  %s: %d loaded chunks (%d ticking), %d entities, %d ticking block entities",
+                level.dimension, level.loadedChunks, level.tickingChunks, level.entities, level.blockEntities));
+            out.append("\n    Entities: ").append(LevelReport.top(level.entityTypes, 10));
+            out.append("\n    Block entities: ").append(LevelReport.top(level.blockEntityTypes, 10));
+
+            for (Map.Entry<Long, int[]> chunk : level.densest)
+            {
+                ChunkPos pos = new ChunkPos(chunk.getKey());
+                out.append(String.format("%n    Chunk %d, %d (block %d, %d): %d entities, %d ticking block entities",
+                    pos.x, pos.z, pos.x << 4, pos.z << 4, chunk.getValue()[0], chunk.getValue()[1]));
+            }
+        }
+
+        logger.info(out);
+    }
+}
@@ -3,6 +3,7 @@ package com.targren.forgeautoshutdown.util;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
 
 /**
  * Static utility class for chat functions (syntactic sugar)
@@ -25,6 +26,23 @@ public class Chat
         server.getPlayerList().broadcastSystemMessage(message, false);
     }
 
+    /**
+     * Sends an auto translated message to all operators currently online
+     * @param server Server instance to look for operators on
+     * @param msg String or language key to send
+     * @param parts Optional objects to add to formattable message
+     */
+    public static void toOps(MinecraftServer server, String msg, Object... parts)
+    {
+        Component message = Component.translatable(msg, parts);
+
+        for (ServerPlayer player : server.getPlayerList().getPlayers())
+        {
+            if (server.getPlayerList().isOp(player.getGameProfile()))
+                player.sendSystemMessage(message);
+        }
+    }
+
     /**
      * Sends an automatically translated, formatted & encapsulated message to a command source
      * @param source Target to send message to
@@ -0,0 +1,175 @@
+package com.targren.forgeautoshutdown.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Chunks around where players were when the server went down, and the positions themselves,
+ * so that the next start can load those chunks before the players come back.
+ *
+ * Chunks are packed into longs the same way as vanilla's ChunkPos, and kept per dimension in
+ * the order they were added: each player's own chunk first, then rings outwards from it.
+ */
+public class ChunkManifest
+{
+    private static final int MAGIC = 0x4641434D; // "FACM"
+    private static final int VERSION = 1;
+
+    /** A player's position when the manifest was taken */
+    public static class Position
+    {
+        public final UUID player;
+        public final String dimension;
+        public final double x;
+        public final double y;
+        public final double z;
+
+        public Position(UUID player, String dimension, double x, double y, double z)
+        {
+            this.player = player;
+            this.dimension = dimension;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+
+    private final Map<String, Set<Long>> chunks = new LinkedHashMap<>();
+    private final List<Position> positions = new ArrayList<>();
+
+    /** Adds a player's position, and every chunk within the given radius of it */
+    public void add(Position position, int radius)
+    {
+        positions.add(position);
+
+        Set<Long> dimension = chunks.computeIfAbsent(position.dimension, key -> new LinkedHashSet<>());
+        int centerX = (int) Math.floor(position.x) >> 4;
+        int centerZ = (int) Math.floor(position.z) >> 4;
+
+        for (int ring = 0; ring <= radius; ring++)
+        {
+            for (int x = centerX - ring; x <= centerX + ring; x++)
+            {
+                for (int z = centerZ - ring; z <= centerZ + ring; z++)
+                {
+                    if (Math.max(Math.abs(x - centerX), Math.abs(z - centerZ)) == ring)
+                        dimension.add(pack(x, z));
+                }
+            }
+        }
+    }
+
+    /** Gets the chunks of every dimension, packed as vanilla's ChunkPos does */
+    public Map<String, Set<Long>> getChunks()
+    {
+        return Collections.unmodifiableMap(chunks);
+    }
+
+    public List<Position> getPositions()
+    {
+        return Collections.unmodifiableList(positions);
+    }
+
+    public int getChunkCount()
+    {
+        int count = 0;
+
+        for (Set<Long> dimension : chunks.values())
+            count += dimension.size();
+
+        return count;
+    }
+
+    /** Packs chunk coordinates into a long, as ChunkPos.asLong does */
+    public static long pack(int x, int z)
+    {
+        return (x & 0xFFFFFFFFL) | ((z & 0xFFFFFFFFL) << 32);
+    }
+
+    /** Loads a manifest from the given file, or returns null if there is none */
+    public static ChunkManifest load(Path file) throws IOException
+    {
+        if (!Files.exists(file))
+            return null;
+
+        ChunkManifest manifest = new ChunkManifest();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a chunk manifest file of this version: " + file);
+
+            int dimensions = in.readInt();
+
+            for (int i = 0; i < dimensions; i++)
+            {
+                Set<Long> dimension = manifest.chunks.computeIfAbsent(in.readUTF(), key -> new LinkedHashSet<>());
+                int count = in.readInt();
+
+                for (int j = 0; j < count; j++)
+                    dimension.add(in.readLong());
+            }
+
+            int players = in.readInt();
+
+            for (int i = 0; i < players; i++)
+            {
+                UUID player = new UUID(in.readLong(), in.readLong());
+                manifest.positions.add(new Position(player, in.readUTF(), in.readDouble(), in.readDouble(), in.readDouble()));
+            }
+        }
+
+        return manifest;
+    }
+
+    /** Saves the manifest to the given file, replacing it only once fully written */
+    public void save(Path file) throws IOException
+    {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(chunks.size());
+
+            for (Map.Entry<String, Set<Long>> dimension : chunks.entrySet())
+            {
+                out.writeUTF(dimension.getKey());
+                out.writeInt(dimension.getValue().size());
+
+                for (long chunk : dimension.getValue())
+                    out.writeLong(chunk);
+            }
+
+            out.writeInt(positions.size());
+
+            for (Position position : positions)
+            {
+                out.writeLong(position.player.getMostSignificantBits());
+                out.writeLong(position.player.getLeastSignificantBits());
+                out.writeUTF(position.dimension);
+                out.writeDouble(position.x);
+                out.writeDouble(position.y);
+                out.writeDouble(position.z);
+            }
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
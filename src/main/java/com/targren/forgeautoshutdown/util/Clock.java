@@ -0,0 +1,32 @@
+package com.targren.forgeautoshutdown.util;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Source of both the monotonic and the wall clock, so that timing decisions can be replayed
+ * against a virtual clock instead of waiting for real time to pass
+ */
+public interface Clock
+{
+    /** The real clocks: {@link System#nanoTime()} and the machine's time zone */
+    Clock SYSTEM = new Clock()
+    {
+        @Override
+        public long nanoTime()
+        {
+            return System.nanoTime();
+        }
+
+        @Override
+        public ZonedDateTime now()
+        {
+            return ZonedDateTime.now();
+        }
+    };
+
+    /** Gets the monotonic time, in nanoseconds from an arbitrary origin */
+    long nanoTime();
+
+    /** Gets the wall clock time, in the machine's time zone */
+    ZonedDateTime now();
+}
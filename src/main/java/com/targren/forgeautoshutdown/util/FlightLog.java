@@ -0,0 +1,189 @@
+package com.targren.forgeautoshutdown.util;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Fixed-size ring of fixed-width telemetry records in a memory-mapped file.
+ *
+ * Records are written straight into the mapped pages, which belong to the OS rather than
+ * the JVM, so they reach the file even if the JVM is halted right after; unlike buffered log
+ * output. Each record carries a sequence number, and the header the next one to be written,
+ * so that a reader can put the ring back in order and skip a record torn by the halt.
+ *
+ * Run this class on its own to decode a ring into CSV:
+ * java -cp forgeautoshutdown.jar com.targren.forgeautoshutdown.util.FlightLog flight-log.bin
+ */
+public class FlightLog
+{
+    private static final int MAGIC = 0x4641464C; // "FAFL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 64;
+    private static final int NEXT_OFFSET = 16;
+
+    /** What a record was written for; only ever add to the end, as the ordinal is stored */
+    public enum Kind
+    {
+        /** The server started; this ring's records from before are from the last run */
+        START,
+        /** A regular watchdog check */
+        CHECK,
+        /** A scheduled task ran; value is how long it took, in microseconds */
+        TASK,
+        /** The server began hanging on a tick */
+        HANG,
+        /** The server finished a tick after hanging; value is how long it hung, in milliseconds */
+        RECOVERED,
+        /** TPS fell below LowTPSThreshold */
+        LAG,
+        /** TPS came back above LowTPSThreshold */
+        LAG_END,
+        /** The whole JVM stalled; value is for how long, in milliseconds */
+        STALL,
+        /** A lag mitigation step was applied; value is the step's ordinal */
+        MITIGATION,
+        /** Every lag mitigation step was undone */
+        MITIGATION_UNDONE,
+        /** A graceful shutdown stage finished; value is the stage's ordinal */
+        SHUTDOWN_STAGE,
+        /** The watchdog attempted a soft kill */
+        SOFT_KILL,
+        /** The watchdog attempted a hard kill */
+        HARD_KILL
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long next;
+
+    /**
+     * Maps the given file as a ring of the given amount of records, carrying on after the
+     * records already in it if it is a ring of the same size
+     */
+    public FlightLog(Path file, int capacity) throws IOException
+    {
+        Files.createDirectories(file.getParent());
+
+        this.capacity = capacity;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        boolean reuse = channel.size() == size;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        if (reuse && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getInt(12) == capacity)
+            next = buffer.getLong(NEXT_OFFSET);
+        else
+        {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_SIZE);
+            buffer.putInt(12, capacity);
+            next = 0L;
+            buffer.putLong(NEXT_OFFSET, next);
+        }
+    }
+
+    /** Appends a record, overwriting the oldest once the ring is full */
+    public synchronized void append(
+        Kind kind, long value, int tickCount, double tickMillis, double tps, double p99Millis, int players, long heapUsed
+    )
+    {
+        int at = HEADER_SIZE + (int) (next % capacity) * RECORD_SIZE;
+
+        // The sequence number goes last, so a record torn halfway does not pass as whole
+        buffer.putLong(at, -1L);
+        buffer.putLong(at + 8, System.currentTimeMillis());
+        buffer.putLong(at + 16, System.nanoTime());
+        buffer.put(at + 24, (byte) kind.ordinal());
+        buffer.putInt(at + 28, tickCount);
+        buffer.putFloat(at + 32, (float) tickMillis);
+        buffer.putFloat(at + 36, (float) tps);
+        buffer.putFloat(at + 40, (float) p99Millis);
+        buffer.putInt(at + 44, players);
+        buffer.putLong(at + 48, heapUsed);
+        buffer.putLong(at + 56, value);
+        buffer.putLong(at, next);
+
+        next++;
+        buffer.putLong(NEXT_OFFSET, next);
+    }
+
+    /** Flushes the mapped pages to disk, for surviving the whole machine going down too */
+    public synchronized void force()
+    {
+        buffer.force();
+    }
+
+    public synchronized void close() throws IOException
+    {
+        buffer.force();
+        channel.close();
+    }
+
+    /** Writes every whole record in a ring file as CSV, oldest first */
+    public static void decode(Path file, PrintStream out) throws IOException
+    {
+        ByteBuffer ring = ByteBuffer.wrap(Files.readAllBytes(file));
+
+        if (ring.limit() < HEADER_SIZE || ring.getInt(0) != MAGIC || ring.getInt(4) != VERSION)
+            throw new IOException("Not a flight log file of this version: " + file);
+
+        int recordSize = ring.getInt(8);
+        int capacity = ring.getInt(12);
+        long next = ring.getLong(NEXT_OFFSET);
+        DateTimeFormatter time = DateTimeFormatter.ISO_LOCAL_DATE_TIME.withZone(ZoneId.systemDefault());
+        Kind[] kinds = Kind.values();
+
+        out.println("seq,time,nanos,kind,value,ticks,tick_ms,tps,p99_ms,players,heap_mb");
+
+        // One slot past the last record may hold a record torn by a halt, with a newer number
+        for (long seq = Math.max(0L, next - capacity); seq <= next; seq++)
+        {
+            int at = HEADER_SIZE + (int) (seq % capacity) * recordSize;
+
+            if (ring.getLong(at) != seq)
+                continue;
+
+            int kind = ring.get(at + 24);
+
+            out.printf(Locale.ROOT, "%d,%s,%d,%s,%d,%d,%.2f,%.2f,%.2f,%d,%d%n",
+                seq,
+                time.format(Instant.ofEpochMilli(ring.getLong(at + 8))),
+                ring.getLong(at + 16),
+                kind >= 0 && kind < kinds.length ? kinds[kind] : Integer.toString(kind),
+                ring.getLong(at + 56),
+                ring.getInt(at + 28),
+                ring.getFloat(at + 32),
+                ring.getFloat(at + 36),
+                ring.getFloat(at + 40),
+                ring.getInt(at + 44),
+                ring.getLong(at + 48) / (1024 * 1024)
+            );
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 1)
+        {
+            System.err.println("Usage: FlightLog <flight-log.bin>");
+            System.exit(2);
+        }
+
+        decode(Paths.get(args[0]), System.out);
+    }
+}
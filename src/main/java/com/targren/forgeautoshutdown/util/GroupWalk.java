@@ -0,0 +1,72 @@
+package com.targren.forgeautoshutdown.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Walks the items of several groups one at a time, e.g. the chunks of every level, listing
+ * each group's items only once the walk reaches it, so that a walk spread over many ticks
+ * sees each group as it is by then. Groups with nothing in them are passed over.
+ */
+public class GroupWalk<G, T>
+{
+    private final Deque<G> groups = new ArrayDeque<>();
+    private final Function<G, List<T>> lister;
+
+    private G group;
+    private List<T> items;
+    private int cursor = 0;
+
+    /** @param lister Lists a group's items, once the walk reaches it */
+    public GroupWalk(Function<G, List<T>> lister)
+    {
+        this.lister = lister;
+    }
+
+    /** Adds a group to the end of the walk */
+    public void add(G group)
+    {
+        groups.add(group);
+    }
+
+    /** Drops every group still to be walked */
+    public void clear()
+    {
+        groups.clear();
+        group = null;
+        items = null;
+        cursor = 0;
+    }
+
+    public boolean isDone()
+    {
+        return groups.isEmpty() && (items == null || cursor >= items.size());
+    }
+
+    /** Gets the group of the item last returned by {@link #next()} */
+    public G getGroup()
+    {
+        return group;
+    }
+
+    /** Gets the next item, listing the next groups as needed; null once the walk is done */
+    public T next()
+    {
+        while (items == null || cursor >= items.size())
+        {
+            if (groups.isEmpty())
+            {
+                clear();
+                return null;
+            }
+
+            group = groups.poll();
+            items = lister.apply(group);
+            cursor = 0;
+        }
+
+        return items.get(cursor++);
+    }
+}
@@ -0,0 +1,136 @@
+package com.targren.forgeautoshutdown.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZonedDateTime;
+
+/**
+ * Histogram of server load by quarter hour of the week, persisted as a small binary file.
+ *
+ * Each slot holds the amount of samples taken in it, and the sums of player counts and TPS
+ * over those samples. Once a slot reaches {@link #MAX_SAMPLES}, its counts are halved, so
+ * that older weeks weigh less and a change in the players' habits is picked up over time.
+ */
+public class LoadHistory
+{
+    public static final int SLOT_MINUTES = 15;
+    public static final int SLOTS = 7 * 24 * 60 / SLOT_MINUTES;
+
+    private static final int MAGIC = 0x46415348; // "FASH"
+    private static final int VERSION = 1;
+    private static final int MAX_SAMPLES = 240;
+
+    private final int[] samples = new int[SLOTS];
+    private final long[] playerSums = new long[SLOTS];
+    private final long[] tpsSums = new long[SLOTS];
+
+    /** Gets the slot that the given time falls in; slot 0 starts on Monday at midnight */
+    public static int slotOf(ZonedDateTime time)
+    {
+        int minuteOfWeek = (time.getDayOfWeek().getValue() - 1) * 24 * 60
+            + time.getHour() * 60
+            + time.getMinute();
+
+        return minuteOfWeek / SLOT_MINUTES;
+    }
+
+    /** Records a single sample of server load at the given time */
+    public synchronized void record(ZonedDateTime time, int players, double tps)
+    {
+        int slot = slotOf(time);
+
+        if (samples[slot] >= MAX_SAMPLES)
+        {
+            samples[slot] /= 2;
+            playerSums[slot] /= 2;
+            tpsSums[slot] /= 2;
+        }
+
+        samples[slot]++;
+        playerSums[slot] += players;
+        tpsSums[slot] += Math.round(tps * 100);
+    }
+
+    public synchronized int getSamples(int slot)
+    {
+        return samples[slot];
+    }
+
+    /** Gets the mean player count of a slot, or 0 if it has no samples */
+    public synchronized double getMeanPlayers(int slot)
+    {
+        return samples[slot] == 0 ? 0 : playerSums[slot] / (double) samples[slot];
+    }
+
+    /** Gets the mean TPS of a slot, or 20 if it has no samples */
+    public synchronized double getMeanTps(int slot)
+    {
+        return samples[slot] == 0 ? 20 : tpsSums[slot] / 100.0 / samples[slot];
+    }
+
+    /**
+     * Gets a slot's load as a single score, where lower is quieter. This is the mean player
+     * count, plus up to one more for the mean TPS falling from 20 to 0.
+     */
+    public synchronized double getScore(int slot)
+    {
+        return getMeanPlayers(slot) + (20 - getMeanTps(slot)) / 20;
+    }
+
+    /** Loads the histogram from the given file, if it exists and is valid */
+    public synchronized void load(Path file) throws IOException
+    {
+        if (!Files.exists(file))
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != SLOTS)
+                throw new IOException("Not a load history file of this version: " + file);
+
+            int[] newSamples = new int[SLOTS];
+            long[] newPlayerSums = new long[SLOTS];
+            long[] newTpsSums = new long[SLOTS];
+
+            for (int i = 0; i < SLOTS; i++)
+            {
+                newSamples[i] = in.readInt();
+                newPlayerSums[i] = in.readLong();
+                newTpsSums[i] = in.readLong();
+            }
+
+            System.arraycopy(newSamples, 0, samples, 0, SLOTS);
+            System.arraycopy(newPlayerSums, 0, playerSums, 0, SLOTS);
+            System.arraycopy(newTpsSums, 0, tpsSums, 0, SLOTS);
+        }
+    }
+
+    /** Saves the histogram to the given file, replacing it only once fully written */
+    public synchronized void save(Path file) throws IOException
+    {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(SLOTS);
+
+            for (int i = 0; i < SLOTS; i++)
+            {
+                out.writeInt(samples[i]);
+                out.writeLong(playerSums[i]);
+                out.writeLong(tpsSums[i]);
+            }
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
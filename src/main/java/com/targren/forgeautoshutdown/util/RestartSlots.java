@@ -0,0 +1,106 @@
+package com.targren.forgeautoshutdown.util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Limits how many processes on one host may restart at once, through a directory of lock
+ * files all of them share: one file per slot, held by an OS file lock.
+ *
+ * The OS releases a process's file locks when it exits, however it exits, so a crashed or
+ * killed process never keeps its slot. Only one slot is held per instance at a time.
+ */
+public class RestartSlots
+{
+    private final Path directory;
+    private final int slots;
+
+    private FileChannel channel;
+    private FileLock lock;
+    private int slot = -1;
+
+    public RestartSlots(Path directory, int slots)
+    {
+        this.directory = directory;
+        this.slots = slots;
+    }
+
+    /**
+     * Takes the first free slot, unless this instance already holds one
+     * @return Whether this instance holds a slot now
+     */
+    public synchronized boolean tryAcquire() throws IOException
+    {
+        if (lock != null)
+            return true;
+
+        Files.createDirectories(directory);
+
+        for (int i = 0; i < slots; i++)
+        {
+            FileChannel candidate = FileChannel.open(
+                directory.resolve("slot-" + i + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE
+            );
+
+            FileLock taken;
+
+            try
+            {
+                taken = candidate.tryLock();
+            }
+            catch (OverlappingFileLockException e)
+            {
+                taken = null;
+            }
+
+            if (taken == null)
+            {
+                candidate.close();
+                continue;
+            }
+
+            channel = candidate;
+            lock = taken;
+            slot = i;
+            return true;
+        }
+
+        return false;
+    }
+
+    /** Gives up the slot held, if any */
+    public synchronized void release() throws IOException
+    {
+        if (lock == null)
+            return;
+
+        try
+        {
+            lock.release();
+        }
+        finally
+        {
+            channel.close();
+            channel = null;
+            lock = null;
+            slot = -1;
+        }
+    }
+
+    /** Gets the slot held, or -1 if none */
+    public synchronized int getSlot()
+    {
+        return slot;
+    }
+
+    public int getSlots()
+    {
+        return slots;
+    }
+}
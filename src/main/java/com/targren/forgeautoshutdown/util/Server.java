@@ -1,31 +1,20 @@
 package com.targren.forgeautoshutdown.util;
 
 import com.targren.forgeautoshutdown.ForgeAutoShutdown;
-import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraftforge.common.util.FakePlayer;
-import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 
 /**
  * Static utility class for server functions
  */
 public class Server
 {
-    private static final Logger LOGGER = ForgeAutoShutdown.LOGGER;
-
-    /** Kicks all players from the server with given reason, then shuts server down */
-    public static void shutdown(MinecraftServer server, Component message)
-    {
-        if (server == null)
-            return;
-
-        for (ServerPlayer player : server.getPlayerList().getPlayers())
-            player.connection.disconnect(message);
-
-        LOGGER.info("Shutdown initiated because: {}", message.getString());
-        server.halt(false);
-    }
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
 
     /** Checks if any non-fake player is present on the server */
     public static boolean hasRealPlayers(MinecraftServer server)
@@ -41,4 +30,22 @@ public class Server
 
         return false;
     }
+
+    /** Gets the directory the mod keeps its own files in, inside the server directory */
+    public static Path getDataPath(MinecraftServer server)
+    {
+        return server.getServerDirectory().toPath().resolve(ForgeAutoShutdown.MODID);
+    }
+
+    /**
+     * Gets a timestamped path for a diagnostic dump file
+     * @param server Server instance the dump is of
+     * @param prefix Short description of the dump's contents
+     * @param extension File extension, without the dot
+     */
+    public static Path getDumpPath(MinecraftServer server, String prefix, String extension)
+    {
+        String name = prefix + "-" + STAMP.format(LocalDateTime.now()) + "." + extension;
+        return getDataPath(server).resolve("dumps").resolve(name);
+    }
 }
@@ -0,0 +1,125 @@
+package com.targren.forgeautoshutdown.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Fixed-size ring buffer of tick durations, for percentile statistics over a window.
+ *
+ * Recording is meant to be done by a single thread (the main server thread) and never
+ * allocates. Summaries may be taken from any thread; they copy the window into a scratch
+ * buffer and sort it, so they are only suited for periodic checks and commands.
+ *
+ * The sample count is published with release semantics rather than as a volatile, so that
+ * recording, done for every server and level tick, costs no fence on x86.
+ */
+public class TickStats
+{
+    private static final VarHandle RECORDED;
+
+    static
+    {
+        try
+        {
+            RECORDED = MethodHandles.lookup().findVarHandle(TickStats.class, "recorded", long.class);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int[] samples;
+    private final int[] scratch;
+
+    /**
+     * Total number of samples ever recorded; written only by the recording thread, and read by
+     * others only through RECORDED
+     */
+    private long recorded = 0L;
+
+    /** @param window Amount of most recent samples to keep */
+    public TickStats(int window)
+    {
+        if (window < 1)
+            throw new IllegalArgumentException("Window must hold at least one sample");
+
+        samples = new int[window];
+        scratch = new int[window];
+    }
+
+    /** Records the duration of a single tick, in nanoseconds */
+    public void record(long nanos)
+    {
+        long count = recorded;
+        long micros = Math.max(0L, nanos / 1000L);
+
+        samples[(int) (count % samples.length)] = (int) Math.min(micros, Integer.MAX_VALUE);
+        RECORDED.setRelease(this, count + 1);
+    }
+
+    /** Gets the amount of samples this buffer holds at most */
+    public int getWindow()
+    {
+        return samples.length;
+    }
+
+    /** Converts a tick time in milliseconds to ticks per second, capped at 20 */
+    public static double toTps(double tickTime)
+    {
+        return tickTime <= 0 ? 20.0 : Math.min(1000.0 / tickTime, 20.0);
+    }
+
+    /** Calculates mean, percentiles and maximum of the samples currently in the window */
+    public synchronized Summary summarize()
+    {
+        int size = (int) Math.min((long) RECORDED.getAcquire(this), samples.length);
+
+        if (size == 0)
+            return Summary.EMPTY;
+
+        System.arraycopy(samples, 0, scratch, 0, size);
+        Arrays.sort(scratch, 0, size);
+
+        long total = 0L;
+        for (int i = 0; i < size; i++)
+            total += scratch[i];
+
+        return new Summary(
+            size,
+            total / 1000.0 / size,
+            percentile(size, 0.95),
+            percentile(size, 0.99),
+            scratch[size - 1] / 1000.0
+        );
+    }
+
+    /** Nearest-rank percentile of the sorted scratch buffer, in milliseconds */
+    private double percentile(int size, double fraction)
+    {
+        int rank = (int) Math.ceil(fraction * size);
+        return scratch[Math.max(rank - 1, 0)] / 1000.0;
+    }
+
+    /** Immutable result of {@link #summarize()}; all times are in milliseconds */
+    public static class Summary
+    {
+        public static final Summary EMPTY = new Summary(0, 0, 0, 0, 0);
+
+        public final int samples;
+        public final double mean;
+        public final double p95;
+        public final double p99;
+        public final double max;
+
+        Summary(int samples, double mean, double p95, double p99, double max)
+        {
+            this.samples = samples;
+            this.mean = mean;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.RestartSlots;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds a {@link RestartSlots} slot from a plain JVM, so that several of these started at
+ * once show how instances queue for their turn to restart.
+ *
+ * Usage: RestartSlotsTrial DIRECTORY SLOTS SECONDS
+ * where SECONDS is how long to hold the slot once taken.
+ */
+public class RestartSlotsTrial
+{
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length != 3)
+        {
+            System.err.println("Usage: RestartSlotsTrial <directory> <slots> <seconds to hold>");
+            System.exit(2);
+        }
+
+        RestartSlots slots = new RestartSlots(Paths.get(args[0]), Integer.parseInt(args[1]));
+        long waitBegin = System.nanoTime();
+
+        while (!slots.tryAcquire())
+            Thread.sleep(250);
+
+        System.out.printf(
+            "Got slot %d after %d ms%n",
+            slots.getSlot(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitBegin)
+        );
+        Thread.sleep(TimeUnit.SECONDS.toMillis(Long.parseLong(args[2])));
+        slots.release();
+    }
+}
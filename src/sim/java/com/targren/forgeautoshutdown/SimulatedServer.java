@@ -0,0 +1,72 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.TickStats;
+
+/**
+ * Server whose ticks and pauses are played in by the simulation. Its average tick time is
+ * smoothed the same way as the real server's.
+ */
+class SimulatedServer implements ServerProbe
+{
+    private final TickStats stats;
+
+    private long heartbeat = 0L;
+    private double averageTickTime = 0;
+    private long gcPauseMillis = 0L;
+    private boolean realPlayers = true;
+
+    SimulatedServer(int window)
+    {
+        this.stats = new TickStats(window);
+    }
+
+    /** Completes a tick that took the given time, ending at the given virtual time */
+    void tick(long nanos, long endNanos)
+    {
+        heartbeat = endNanos;
+        averageTickTime = averageTickTime * 0.8 + nanos / 1_000_000.0 * 0.2;
+        stats.record(nanos);
+    }
+
+    /** Sets whether any non-fake player is online */
+    void setRealPlayers(boolean value)
+    {
+        realPlayers = value;
+    }
+
+    /** Records a stop-the-world pause of the whole JVM */
+    void pause(long nanos)
+    {
+        gcPauseMillis += nanos / 1_000_000L;
+    }
+
+    @Override
+    public long getHeartbeat()
+    {
+        return heartbeat;
+    }
+
+    @Override
+    public double getAverageTickTime()
+    {
+        return averageTickTime;
+    }
+
+    @Override
+    public TickStats.Summary getTickSummary()
+    {
+        return stats.summarize();
+    }
+
+    @Override
+    public boolean hasRealPlayers()
+    {
+        return realPlayers;
+    }
+
+    @Override
+    public long getGcPauseMillis()
+    {
+        return gcPauseMillis;
+    }
+}
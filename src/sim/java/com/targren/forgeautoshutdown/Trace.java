@@ -0,0 +1,215 @@
+package com.targren.forgeautoshutdown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sequence of server ticks and whole-JVM pauses to replay against the watchdog, along with
+ * when, if ever, the server broke for real and should have been killed.
+ *
+ * Recorded traces are text files with one step per line: a tick time in milliseconds, or
+ * "pause MS" for a stop-the-world pause. A line reading "fault" marks where the server
+ * broke; traces without one are of a healthy server. Blank lines and "#" comments are skipped.
+ */
+class Trace
+{
+    static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /** A single tick, or a pause of the whole JVM, of the given length */
+    static class Step
+    {
+        final boolean pause;
+        final long nanos;
+
+        Step(boolean pause, long nanos)
+        {
+            this.pause = pause;
+            this.nanos = nanos;
+        }
+
+        /** Wall time this step takes; ticks faster than 50 ms wait out the rest */
+        long getWallNanos()
+        {
+            return pause ? nanos : Math.max(nanos, TICK_NANOS);
+        }
+    }
+
+    final String name;
+    final List<Step> steps = new ArrayList<>();
+
+    /** Wall time the fault began at, or -1 if the server stayed healthy */
+    long faultNanos = -1L;
+    private long lengthNanos = 0L;
+
+    Trace(String name)
+    {
+        this.name = name;
+    }
+
+    Trace tick(double millis)
+    {
+        return add(new Step(false, (long) (millis * 1_000_000L)));
+    }
+
+    Trace pause(double millis)
+    {
+        return add(new Step(true, (long) (millis * 1_000_000L)));
+    }
+
+    /** Marks the server as broken from here on */
+    Trace fault()
+    {
+        if (faultNanos < 0)
+            faultNanos = lengthNanos;
+
+        return this;
+    }
+
+    /** Adds healthy ticks around the given tick time for the given amount of seconds */
+    Trace ticks(Random random, double seconds, double millis, double jitter)
+    {
+        long until = lengthNanos + (long) (seconds * 1_000_000_000L);
+
+        while (lengthNanos < until)
+            tick(Math.max(1, millis + random.nextGaussian() * jitter));
+
+        return this;
+    }
+
+    private Trace add(Step step)
+    {
+        steps.add(step);
+        lengthNanos += step.getWallNanos();
+        return this;
+    }
+
+    /** Loads a recorded trace; see the class description for the format */
+    static Trace load(Path file) throws IOException
+    {
+        Trace trace = new Trace(file.getFileName().toString());
+        int number = 0;
+
+        for (String line : Files.readAllLines(file))
+        {
+            number++;
+            line = line.trim().toLowerCase(Locale.ROOT);
+
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            try
+            {
+                if (line.equals("fault"))
+                    trace.fault();
+                else if (line.startsWith("pause"))
+                    trace.pause(Double.parseDouble(line.substring(5).trim()));
+                else
+                    trace.tick(Double.parseDouble(line));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException("Invalid step at " + file + ":" + number + ": " + line);
+            }
+        }
+
+        return trace;
+    }
+
+    /** A healthy server with the odd slow tick, for half an hour */
+    static Trace steady(Random random)
+    {
+        Trace trace = new Trace("steady");
+
+        for (int minute = 0; minute < 30; minute++)
+        {
+            trace.ticks(random, 55, 15, 5);
+            trace.tick(200 + random.nextInt(800));
+            trace.ticks(random, 5, 15, 5);
+        }
+
+        return trace;
+    }
+
+    /** A healthy server that goes through two minutes of long, frequent GC pauses */
+    static Trace gcStorm(Random random)
+    {
+        Trace trace = new Trace("gc-storm").ticks(random, 300, 20, 5);
+
+        for (int second = 0; second < 120; second += 3)
+        {
+            trace.ticks(random, 2, 45, 15);
+            trace.pause(300 + random.nextInt(2700));
+        }
+
+        return trace.ticks(random, 600, 20, 5);
+    }
+
+    /** A healthy server with a 20 second lag spike every five minutes */
+    static Trace lagSpikes(Random random)
+    {
+        Trace trace = new Trace("lag-spikes");
+
+        for (int spike = 0; spike < 6; spike++)
+        {
+            trace.ticks(random, 280, 20, 5);
+            trace.ticks(random, 20, 150, 40);
+        }
+
+        return trace;
+    }
+
+    /**
+     * A server whose tick time creeps up over 20 minutes until it stays unplayable. The
+     * fault is when ticks first average over 100 ms, i.e. under 10 TPS.
+     */
+    static Trace slowDrift(Random random)
+    {
+        Trace trace = new Trace("slow-drift").ticks(random, 120, 20, 5);
+
+        for (int second = 0; second < 1200; second += 10)
+        {
+            double millis = 20 + 160 * second / 1200.0;
+
+            if (millis > 100)
+                trace.fault();
+
+            trace.ticks(random, 10, millis, millis / 5);
+        }
+
+        return trace.ticks(random, 600, 180, 30);
+    }
+
+    /** A healthy server that hangs on a single tick for ten minutes */
+    static Trace hang(Random random)
+    {
+        return new Trace("hang")
+            .ticks(random, 60 + random.nextInt(240), 20, 5)
+            .fault()
+            .tick(TimeUnit.MINUTES.toMillis(10));
+    }
+
+    /**
+     * A server running out of heap: ticks take seconds each, between seconds-long GC pauses.
+     * Ticks still complete, so this is only caught as low TPS.
+     */
+    static Trace gcDeathSpiral(Random random)
+    {
+        Trace trace = new Trace("gc-death-spiral")
+            .ticks(random, 60 + random.nextInt(240), 20, 5)
+            .fault();
+
+        for (int i = 0; i < 100; i++)
+        {
+            trace.pause(1000 + random.nextInt(4000));
+            trace.tick(2000 + random.nextInt(8000));
+        }
+
+        return trace;
+    }
+}
@@ -0,0 +1,35 @@
+package com.targren.forgeautoshutdown;
+
+import com.targren.forgeautoshutdown.util.Clock;
+
+import java.time.ZonedDateTime;
+
+/** Clock that only moves when told to, starting from a fixed wall clock time */
+class VirtualClock implements Clock
+{
+    private final ZonedDateTime origin;
+    private long nanos = 0L;
+
+    VirtualClock(ZonedDateTime origin)
+    {
+        this.origin = origin;
+    }
+
+    /** Moves the clock to the given time since the origin; it never moves backwards */
+    void set(long nanos)
+    {
+        this.nanos = Math.max(this.nanos, nanos);
+    }
+
+    @Override
+    public long nanoTime()
+    {
+        return nanos;
+    }
+
+    @Override
+    public ZonedDateTime now()
+    {
+        return origin.plusNanos(nanos);
+    }
+}
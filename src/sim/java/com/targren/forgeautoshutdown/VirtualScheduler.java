@@ -0,0 +1,136 @@
+package com.targren.forgeautoshutdown;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler that only runs work when told to advance, in deadline order, moving a virtual
+ * clock along as it goes. Work for the main server thread runs right away.
+ */
+class VirtualScheduler extends Scheduler
+{
+    /** Scheduled run of a task, which is also its future */
+    private class Task implements ScheduledFuture<Object>
+    {
+        final Runnable task;
+        final long period;
+        final long order;
+        long deadline;
+        boolean cancelled = false;
+        boolean done = false;
+
+        Task(Runnable task, long deadline, long period)
+        {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+            this.order = sequence++;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(deadline - clock.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other)
+        {
+            Task task = (Task) other;
+            int compare = Long.compare(deadline, task.deadline);
+            return compare != 0 ? compare : Long.compare(order, task.order);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            if (done)
+                return false;
+
+            cancelled = true;
+            done = true;
+            return queue.remove(this);
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return done;
+        }
+
+        @Override
+        public Object get()
+        {
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit)
+        {
+            return null;
+        }
+    }
+
+    private final VirtualClock clock;
+    private final PriorityQueue<Task> queue = new PriorityQueue<>();
+    private long sequence = 0L;
+
+    VirtualScheduler(VirtualClock clock)
+    {
+        this.clock = clock;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit)
+    {
+        return add(new Task(task, clock.nanoTime() + unit.toNanos(delay), 0L));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long delay, long period, TimeUnit unit)
+    {
+        return add(new Task(task, clock.nanoTime() + unit.toNanos(delay), unit.toNanos(period)));
+    }
+
+    @Override
+    public void runOnMain(Runnable task)
+    {
+        task.run();
+    }
+
+    /** Runs all work due before the given time, then moves the clock to it */
+    void advanceTo(long nanos)
+    {
+        while (!queue.isEmpty() && queue.peek().deadline < nanos)
+        {
+            Task task = queue.poll();
+            clock.set(task.deadline);
+
+            if (task.period > 0)
+            {
+                task.deadline += task.period;
+                queue.add(task);
+            }
+            else
+                task.done = true;
+
+            task.task.run();
+        }
+
+        clock.set(nanos);
+    }
+
+    private Task add(Task task)
+    {
+        queue.add(task);
+        return task;
+    }
+}
@@ -0,0 +1,454 @@
+package com.targren.forgeautoshutdown;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.targren.forgeautoshutdown.util.GroupWalk;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Headless harness that replays tick time traces against {@link WatchdogTask} on a virtual
+ * clock, far faster than real time, and reports for each watchdog config how quickly real
+ * faults were caught and how often a healthy server would have been killed. Lag mitigation
+ * is not simulated, so a lag kill is reported where the live watchdog would start on its
+ * mitigation steps.
+ *
+ * It then plays shutdown schedules through {@link ShutdownTask} on a virtual scheduler, with
+ * players coming and going and the config reloaded part way, and reports when each shut the
+ * server down against when it should have. Last, it walks levels' chunks as pre-saving does,
+ * with levels that have none loaded among them.
+ *
+ * Usage: simulate [--runs N] [--trace FILE]... [CONFIG]...
+ * where each CONFIG is a comma separated list of Watchdog settings to change from their
+ * defaults, e.g. "LagMetric=P99,LowTPSTimeout=60". The defaults alone are always run first.
+ */
+public class WatchdogSimulation
+{
+    private static final List<Function<Random, Trace>> SCENARIOS = List.of(
+        Trace::steady,
+        Trace::gcStorm,
+        Trace::lagSpikes,
+        Trace::slowDrift,
+        Trace::hang,
+        Trace::gcDeathSpiral
+    );
+
+    /** Monday midnight, so that daily entries fall on the first simulated day */
+    private static final ZonedDateTime ORIGIN = ZonedDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final long HORIZON = TimeUnit.DAYS.toNanos(2);
+
+    private static final List<ShutdownScenario> SHUTDOWN_SCENARIOS = List.of(
+        new ShutdownScenario("daily", "daily 05:00", at(5, 5), 5),
+        new ShutdownScenario("uptime", "uptime 06:00", at(6, 5), 5),
+        new ShutdownScenario("no-warnings", "daily 05:00", at(5, 0), 0)
+            .warnings(false),
+        new ShutdownScenario("delay", "daily 05:00", at(5, 25), 5)
+            .delay()
+            .playersUntil(at(5, 20)),
+        new ShutdownScenario("reload", "daily 05:00", at(6, 5), 5)
+            .reload(at(4, 0), "daily 06:00")
+            .reload(at(6, 2), "daily 08:00"),
+        new ShutdownScenario("start-now", "daily 05:00", at(1, 5), 5)
+            .delay()
+            .playersUntil(HORIZON)
+            .startNow(at(1, 0))
+    );
+
+    public static void main(String[] args) throws IOException
+    {
+        Configurator.setRootLevel(Level.ERROR);
+
+        int runs = 20;
+        List<Trace> recorded = new ArrayList<>();
+        List<String> configs = new ArrayList<>();
+        configs.add("");
+
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--runs"))
+                runs = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--trace"))
+                recorded.add(Trace.load(Paths.get(args[++i])));
+            else
+                configs.add(args[i]);
+        }
+
+        for (String config : configs)
+        {
+            applyConfig(config);
+            System.out.printf("%nConfig: %s%n", config.isEmpty() ? "defaults" : config);
+            System.out.printf("%-16s %5s %6s %11s %7s %12s %12s%n",
+                "scenario", "runs", "kills", "false kills", "missed", "mean latency", "max latency");
+
+            for (Function<Random, Trace> scenario : SCENARIOS)
+            {
+                Result result = new Result();
+                String name = null;
+
+                for (int seed = 0; seed < runs; seed++)
+                {
+                    Trace trace = scenario.apply(new Random(seed));
+                    result.add(run(trace), trace);
+                    name = trace.name;
+                }
+
+                result.print(name);
+            }
+
+            for (Trace trace : recorded)
+            {
+                Result result = new Result();
+                result.add(run(trace), trace);
+                result.print(trace.name);
+            }
+        }
+
+        System.out.printf("%nShutdown schedules%n");
+        System.out.printf("%-16s %9s %9s %9s %7s%n", "scenario", "expected", "shut down", "warnings", "result");
+
+        for (ShutdownScenario scenario : SHUTDOWN_SCENARIOS)
+            scenario.run();
+
+        checkPreSaveWalk();
+    }
+
+    /** Walks levels' chunks one at a time as PreSaveTask does, with empty levels first, between and last */
+    private static void checkPreSaveWalk()
+    {
+        List<List<String>> levels = List.of(
+            List.of(),
+            List.of("overworld 0,0", "overworld 0,1"),
+            List.of(),
+            List.of(),
+            List.of("nether 0,0"),
+            List.of()
+        );
+
+        GroupWalk<List<String>, String> walk = new GroupWalk<>(level -> level);
+        levels.forEach(walk::add);
+
+        List<String> walked = new ArrayList<>();
+        int steps = 0;
+
+        while (!walk.isDone() && steps++ < 100)
+        {
+            String chunk = walk.next();
+
+            if (chunk != null)
+                walked.add(chunk);
+        }
+
+        boolean ok = walked.equals(List.of("overworld 0,0", "overworld 0,1", "nether 0,0")) && walk.isDone();
+        System.out.printf("%nPre-save walk over %d levels, %d empty: %d chunks %s%n",
+            levels.size(), levels.stream().filter(List::isEmpty).count(), walked.size(), ok ? "ok" : "WRONG");
+    }
+
+    /** Resets the config to its defaults, then applies the given changes */
+    private static void applyConfig(String changes)
+    {
+        Config.SPEC.acceptConfig(CommentedConfig.inMemory());
+
+        for (String change : changes.split(","))
+        {
+            if (change.isBlank())
+                continue;
+
+            String[] pair = change.split("=", 2);
+            if (pair.length != 2)
+                throw new IllegalArgumentException("Expected SETTING=VALUE: " + change);
+
+            String key = pair[0].trim();
+            String value = pair[1].trim();
+
+            switch (key)
+            {
+                case "Interval":          Config.watchdogInterval.set(Integer.parseInt(value)); break;
+                case "Timeout":           Config.maxTickTimeout.set(Integer.parseInt(value)); break;
+                case "HeartbeatInterval": Config.heartbeatInterval.set(Integer.parseInt(value)); break;
+                case "LowTPSThreshold":   Config.lowTPSThreshold.set(Integer.parseInt(value)); break;
+                case "LowTPSTimeout":     Config.lowTPSTimeout.set(Integer.parseInt(value)); break;
+                case "StallThreshold":    Config.stallThreshold.set(Integer.parseInt(value)); break;
+                case "StatsWindow":       Config.statsWindow.set(Integer.parseInt(value)); break;
+                case "LagMetric":
+                    Config.lagMetric.set(Config.LagMetric.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown Watchdog setting: " + key);
+            }
+        }
+
+        Config.refresh();
+    }
+
+    /**
+     * Replays a trace, running the watchdog at its fixed rate as the scheduler would, and its
+     * heartbeat checks as the watchdog thread would. Scheduled checks due during a whole-JVM
+     * pause all run late, back to back, once the pause is over; the watchdog thread only
+     * wakes up once.
+     * @return Time of the kill, or -1 if the server was never killed
+     */
+    static long run(Trace trace)
+    {
+        VirtualClock clock = new VirtualClock(ZonedDateTime.now());
+        SimulatedServer server = new SimulatedServer(Config.statsWindow.get());
+        long[] killedAt = { -1L };
+
+        WatchdogTask watchdog = new WatchdogTask(clock, server, cause -> killedAt[0] = clock.nanoTime());
+        long interval = Config.get().intervalNanos;
+        long heartbeat = Config.get().heartbeatNanos;
+        long nextCheck = interval;
+        long nextBeatCheck = heartbeat;
+        long now = 0L;
+
+        for (Trace.Step step : trace.steps)
+        {
+            long end = now + step.getWallNanos();
+
+            if (step.pause)
+                server.pause(step.nanos);
+
+            while (Math.min(nextCheck, nextBeatCheck) < end && killedAt[0] < 0)
+            {
+                if (nextBeatCheck <= nextCheck)
+                {
+                    clock.set(step.pause ? end : nextBeatCheck);
+                    watchdog.checkHeartbeat();
+                    nextBeatCheck = clock.nanoTime() + heartbeat;
+                }
+                else
+                {
+                    clock.set(step.pause ? end : nextCheck);
+                    watchdog.run();
+                    nextCheck += interval;
+                }
+            }
+
+            if (killedAt[0] >= 0)
+                break;
+
+            if (!step.pause)
+                server.tick(step.nanos, now + step.nanos);
+
+            now = end;
+        }
+
+        return killedAt[0];
+    }
+
+    private static long at(int hours, int minutes)
+    {
+        return TimeUnit.HOURS.toNanos(hours) + TimeUnit.MINUTES.toNanos(minutes);
+    }
+
+    /**
+     * A shutdown schedule, the config and player changes made as it plays out, and when it
+     * should have shut the server down
+     */
+    private static class ShutdownScenario
+    {
+        /** Something done at a set time, before any work due then */
+        private static class Event
+        {
+            final long at;
+            final BiConsumer<ShutdownTask, SimulatedServer> action;
+
+            Event(long at, BiConsumer<ShutdownTask, SimulatedServer> action)
+            {
+                this.at = at;
+                this.action = action;
+            }
+        }
+
+        final String name;
+        final String schedule;
+        final long expected;
+        final int expectedWarnings;
+        final List<Event> events = new ArrayList<>();
+
+        boolean warnings = true;
+        boolean delay = false;
+        boolean players = false;
+
+        ShutdownScenario(String name, String schedule, long expected, int expectedWarnings)
+        {
+            this.name = name;
+            this.schedule = schedule;
+            this.expected = expected;
+            this.expectedWarnings = expectedWarnings;
+        }
+
+        ShutdownScenario warnings(boolean value)
+        {
+            warnings = value;
+            return this;
+        }
+
+        ShutdownScenario delay()
+        {
+            delay = true;
+            return this;
+        }
+
+        /** Has players online from the start until the given time */
+        ShutdownScenario playersUntil(long at)
+        {
+            players = true;
+            events.add(new Event(at, (task, server) -> server.setRealPlayers(false)));
+            return this;
+        }
+
+        /** Reloads the config with a new schedule at the given time */
+        ShutdownScenario reload(long at, String spec)
+        {
+            events.add(new Event(at, (task, server) ->
+            {
+                Config.schedules.set(List.of(spec));
+                task.applyConfig(Config.refresh());
+            }));
+            return this;
+        }
+
+        ShutdownScenario startNow(long at)
+        {
+            events.add(new Event(at, (task, server) -> task.startNow("simulation")));
+            return this;
+        }
+
+        void run()
+        {
+            Config.SPEC.acceptConfig(CommentedConfig.inMemory());
+            Config.schedules.set(List.of(schedule));
+            Config.scheduleWarning.set(warnings);
+            Config.scheduleDelay.set(delay);
+            Config.refresh();
+
+            VirtualClock clock = new VirtualClock(ORIGIN);
+            VirtualScheduler scheduler = new VirtualScheduler(clock);
+            SimulatedServer server = new SimulatedServer(Config.statsWindow.get());
+            server.setRealPlayers(players);
+
+            int[] warned = { 0 };
+            long[] shutdownAt = { -1L };
+
+            ShutdownTask task = new ShutdownTask(clock, scheduler, server, new ShutdownTask.Actions()
+            {
+                @Override
+                public void warn(String warning, int minutesLeft)
+                {
+                    warned[0]++;
+                }
+
+                @Override
+                public void standDown() { }
+
+                @Override
+                public void shutdown()
+                {
+                    if (shutdownAt[0] < 0)
+                        shutdownAt[0] = clock.nanoTime();
+                }
+            });
+
+            task.applyConfig(Config.get());
+            events.sort(Comparator.comparingLong(event -> event.at));
+
+            for (Event event : events)
+            {
+                scheduler.advanceTo(event.at);
+
+                if (shutdownAt[0] >= 0)
+                    break;
+
+                event.action.accept(task, server);
+            }
+
+            if (shutdownAt[0] < 0)
+                scheduler.advanceTo(HORIZON);
+
+            boolean ok = shutdownAt[0] == expected && warned[0] == expectedWarnings;
+            System.out.printf("%-16s %9s %9s %9d %7s%n",
+                name,
+                time(expected),
+                shutdownAt[0] < 0 ? "never" : time(shutdownAt[0]),
+                warned[0],
+                ok ? "ok" : "WRONG"
+            );
+        }
+
+        private static String time(long nanos)
+        {
+            long minutes = TimeUnit.NANOSECONDS.toMinutes(nanos);
+            return String.format("%d:%02d", minutes / 60, minutes % 60);
+        }
+    }
+
+    /** Tallies the outcomes of one scenario's runs against its ground truth */
+    private static class Result
+    {
+        int runs = 0;
+        int kills = 0;
+        int falseKills = 0;
+        int missed = 0;
+        long totalLatency = 0L;
+        long maxLatency = 0L;
+        int detected = 0;
+
+        /** Adds a run, given when it was killed and the trace it replayed */
+        void add(long killedAt, Trace trace)
+        {
+            runs++;
+
+            if (killedAt >= 0)
+                kills++;
+
+            if (trace.faultNanos < 0 || (killedAt >= 0 && killedAt < trace.faultNanos))
+            {
+                if (killedAt >= 0)
+                    falseKills++;
+
+                return;
+            }
+
+            if (killedAt < 0)
+            {
+                missed++;
+                return;
+            }
+
+            long latency = killedAt - trace.faultNanos;
+            totalLatency += latency;
+            maxLatency = Math.max(maxLatency, latency);
+            detected++;
+        }
+
+        void print(String name)
+        {
+            System.out.printf("%-16s %5d %6d %11s %7d %12s %12s%n",
+                name,
+                runs,
+                kills,
+                String.format("%d (%.0f%%)", falseKills, 100.0 * falseKills / runs),
+                missed,
+                detected == 0 ? "-" : seconds(totalLatency / detected),
+                detected == 0 ? "-" : seconds(maxLatency)
+            );
+        }
+
+        private static String seconds(long nanos)
+        {
+            return String.format("%.1f s", nanos / 1e9);
+        }
+    }
+}